@@ -0,0 +1,101 @@
+package game2D.bench;
+
+import game2D.TileMap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * BenchMaps makes tile maps of any width for the benchmarks by repeating
+ * the columns of maps/map1.txt, so that every size has the same mix of
+ * tiles as the real level. Each map is written to a temporary folder in
+ * the text, binary and chunked binary formats along with copies of the
+ * tile images.
+ * <p>
+ * The benchmarks must be run from the top of the project so that the
+ * maps and images folders can be found.
+ */
+public class BenchMaps {
+
+    public static final String TEXT = "bench.txt";
+    public static final String BINARY = "bench" + TileMap.BINARY_EXTENSION;
+    public static final String CHUNKED = "bench-chunked" + TileMap.BINARY_EXTENSION;
+
+    private static final String SOURCE_FOLDER = "maps";
+    private static final String SOURCE_MAP = "map1.txt";
+
+    /**
+     * Writes a map 'width' tiles wide to a new temporary folder, which is
+     * deleted when the JVM exits.
+     *
+     * @param width The width of the map in tiles
+     * @return The folder holding TEXT, BINARY and CHUNKED and the tile images
+     * @throws IOException if maps/map1.txt can't be read or the map can't be written
+     */
+    public static String create(int width) throws IOException {
+        File source = new File(SOURCE_FOLDER, SOURCE_MAP);
+        if (!source.isFile())
+            throw new IOException("Can't find '" + source + "', run the benchmarks from the top of the project");
+
+        ArrayList<String> header = new ArrayList<String>();
+        ArrayList<String> rows = new ArrayList<String>();
+        String dims;
+        try (BufferedReader in = new BufferedReader(new FileReader(source))) {
+            dims = in.readLine();
+            String line;
+            boolean inMap = false;
+            while ((line = in.readLine()) != null) {
+                if (inMap) rows.add(line);
+                else header.add(line);
+                if (line.trim().startsWith("#map")) inMap = true;
+            }
+        }
+
+        String[] vals = dims.split(" ");
+        int sourceWidth = Integer.parseInt(vals[0]);
+        int height = Integer.parseInt(vals[1]);
+
+        File folder = Files.createTempDirectory("game2D-bench").toFile();
+        folder.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(new File(folder, TEXT))) {
+            out.println(width + " " + height + " " + vals[2] + " " + vals[3]);
+            for (String line : header) out.println(line);
+            for (int r = 0; r < height && r < rows.size(); r++) {
+                StringBuilder row = new StringBuilder(width);
+                String src = rows.get(r);
+                for (int c = 0; c < width; c++) {
+                    int sc = c % sourceWidth;
+                    row.append((sc < src.length()) ? src.charAt(sc) : '.');
+                }
+                out.println(row);
+            }
+        }
+        new File(folder, TEXT).deleteOnExit();
+
+        File[] images = new File(SOURCE_FOLDER).listFiles();
+        if (images != null) {
+            for (File image : images) {
+                if (!image.getName().endsWith(".png")) continue;
+                File copy = new File(folder, image.getName());
+                Files.copy(image.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                copy.deleteOnExit();
+            }
+        }
+
+        TileMap map = new TileMap();
+        if (!map.loadMap(folder.getPath(), TEXT)
+                || !map.saveBinaryMap(new File(folder, BINARY).getPath())
+                || !map.saveChunkedMap(new File(folder, CHUNKED).getPath(), TileMap.DEFAULT_STREAM_CHUNK_TILES))
+            throw new IOException("Failed to write the benchmark maps to '" + folder + "'");
+        new File(folder, BINARY).deleteOnExit();
+        new File(folder, CHUNKED).deleteOnExit();
+
+        return folder.getPath();
+    }
+}
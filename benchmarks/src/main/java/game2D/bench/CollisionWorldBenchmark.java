@@ -0,0 +1,89 @@
+package game2D.bench;
+
+import game2D.Animation;
+import game2D.CollisionWorld;
+import game2D.Sprite;
+import game2D.TileMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CollisionWorld.move() on a crowd of sprites spread across
+ * the map, each running and falling and turning round at walls. Each
+ * benchmark call moves every sprite once, so the score is the time to
+ * make 'sprites' moves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionWorldBenchmark {
+
+    @Param({"512"})
+    int width;        // The map width in tiles
+
+    @Param({"100", "10000"})
+    int sprites;
+
+    private CollisionWorld world;
+    private Sprite[] crowd;
+    private float[] speed;
+    private float maxX;        // The furthest right a sprite can stand on the map
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        TileMap map = new TileMap();
+        map.loadMap(BenchMaps.create(width), BenchMaps.TEXT);
+        world = new CollisionWorld(map);
+        maxX = map.getPixelWidth() - 16;
+
+        Animation anim = new Animation();
+        anim.addFrame(new BufferedImage(16, 24, BufferedImage.TYPE_INT_ARGB), 100);
+
+        Random random = new Random(42);
+        crowd = new Sprite[sprites];
+        speed = new float[sprites];
+        for (int i = 0; i < sprites; i++) {
+            Sprite s = new Sprite(anim);
+            s.show();
+            s.updateAnimation(0);
+            s.setX(random.nextFloat() * (map.getPixelWidth() - 16));
+            s.setY(random.nextFloat() * map.getTileHeight() * 4);
+            crowd[i] = s;
+            speed[i] = (random.nextBoolean() ? 1 : -1) * (0.05f + random.nextFloat() * 0.2f);
+        }
+    }
+
+    @Benchmark
+    public int move() {
+        int all = 0;
+        for (int i = 0; i < crowd.length; i++) {
+            Sprite s = crowd[i];
+            s.setVelocityX(speed[i]);
+            s.setVelocityY(0.2f);
+            int contacts = world.move(s, 8);
+            if ((contacts & (CollisionWorld.WALL_LEFT | CollisionWorld.WALL_RIGHT)) != 0) speed[i] = -speed[i];
+            // Nothing outside the map is solid, so turn round at its ends too
+            if (s.getX() <= 0) speed[i] = Math.abs(speed[i]);
+            if (s.getX() >= maxX) speed[i] = -Math.abs(speed[i]);
+            all |= contacts;
+        }
+        return all;
+    }
+}
@@ -0,0 +1,94 @@
+package game2D.bench;
+
+import game2D.Sprite;
+import game2D.TileMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Game.handleTileMapCollisions() moving the player through
+ * the tile map, running back and forth along the level and falling
+ * under gravity as it does in the game.
+ * <p>
+ * Game is in the default package, which can't be imported, so it is
+ * created by name and the method is called through a MethodHandle,
+ * which the JIT inlines like a normal call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GameCollisionBenchmark {
+
+    private static final Class<?> GAME;
+    private static final MethodHandle HANDLE_COLLISIONS;
+
+    static {
+        try {
+            GAME = Class.forName("Game");
+            HANDLE_COLLISIONS = MethodHandles.publicLookup()
+                    .findVirtual(GAME, "handleTileMapCollisions", MethodType.methodType(void.class, Sprite.class, long.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Sprite.class, long.class));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"32", "512", "4096"})
+    int width;        // The map width in tiles
+
+    private Object game;
+    private Sprite player;
+    private float speed = 0.2f;        // The player's running speed, negative when running left
+    private float maxX;                // The furthest right the player can stand on the map
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String folder = BenchMaps.create(width);
+
+        game = GAME.getConstructor().newInstance();
+        GAME.getMethod("init", String.class).invoke(game, "map1.txt");
+        ((TileMap) field("tmap").get(game)).loadMap(folder, BenchMaps.TEXT);
+        player = (Sprite) field("player").get(game);
+        maxX = ((TileMap) field("tmap").get(game)).getPixelWidth() - player.getWidth();
+    }
+
+    @Benchmark
+    public Sprite handleTileMapCollisions() throws Throwable {
+        float x = player.getX();
+        player.setVelocityX(speed);
+        player.setVelocityY(0.2f);
+        HANDLE_COLLISIONS.invokeExact(game, player, 8L);
+
+        // Turn round at walls and the ends of the map. Nothing outside the map
+        // is solid, so the player has to be kept on it here.
+        if (player.getX() == x) speed = -speed;
+        if (player.getX() <= 0) speed = Math.abs(speed);
+        if (player.getX() >= maxX) speed = -Math.abs(speed);
+        return player;
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        Field f = GAME.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+}
@@ -0,0 +1,110 @@
+package game2D.bench;
+
+import game2D.Animation;
+import game2D.Sprite;
+import game2D.Velocity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-update cost of sprites and their animations:
+ * Animation.update() on animations of different lengths, Sprite.update()
+ * on crowds of different sizes, and Velocity.add(). Each benchmark only
+ * takes the parameters of the state it uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SpriteBenchmark {
+
+    /**
+     * An animation with 'frames' frames of slightly different lengths.
+     */
+    @State(Scope.Thread)
+    public static class AnimationState {
+
+        @Param({"2", "16", "256"})
+        int frames;
+
+        Animation anim;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            anim = makeAnimation(frames);
+        }
+    }
+
+    /**
+     * A crowd of moving sprites, each with its own playhead on a shared
+     * two frame animation clip, like the game's enemies.
+     */
+    @State(Scope.Thread)
+    public static class CrowdState {
+
+        @Param({"1", "100", "10000"})
+        int sprites;
+
+        Sprite[] crowd;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Animation anim = makeAnimation(2);
+            crowd = new Sprite[sprites];
+            for (int i = 0; i < sprites; i++) {
+                Sprite s = new Sprite(new Animation(anim.getClip()));
+                s.show();
+                s.setVelocityX(0.1f);
+                s.setVelocityY(0.05f);
+                crowd[i] = s;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class VelocityState {
+
+        Velocity velocity = new Velocity(0.1, 30);
+        Velocity push = new Velocity(0.01, 200);
+    }
+
+    @Benchmark
+    public Animation animationUpdate(AnimationState state) {
+        state.anim.update(16);
+        return state.anim;
+    }
+
+    @Benchmark
+    public Sprite[] spriteUpdate(CrowdState state) {
+        Sprite[] crowd = state.crowd;
+        for (int i = 0; i < crowd.length; i++) crowd[i].update(16);
+        return crowd;
+    }
+
+    @Benchmark
+    public Velocity velocityAdd(VelocityState state) {
+        state.velocity.add(state.push);
+        return state.velocity;
+    }
+
+    private static Animation makeAnimation(int frames) {
+        Animation anim = new Animation();
+        for (int i = 0; i < frames; i++)
+            anim.addFrame(new BufferedImage(16, 24, BufferedImage.TYPE_INT_ARGB), 50 + i % 7);
+        return anim;
+    }
+}
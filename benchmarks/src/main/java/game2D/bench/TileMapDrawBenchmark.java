@@ -0,0 +1,82 @@
+package game2D.bench;
+
+import game2D.TextureAtlas;
+import game2D.TileMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TileMap.draw() filling a game sized offscreen image, scrolling
+ * one pixel further across the map each time so that every column of
+ * tiles is drawn in turn. The modes compare drawing each tile from its
+ * own image, from a texture atlas, from cached chunk images and from a
+ * map streamed from disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TileMapDrawBenchmark {
+
+    @Param({"32", "512", "4096"})
+    int width;        // The map width in tiles
+
+    @Param({"images", "atlas", "cached", "streamed"})
+    String mode;
+
+    private TileMap map;
+    private BufferedImage screen;
+    private Graphics2D g;
+    private int scroll;        // How far the map has scrolled in pixels
+    private int maxScroll;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String folder = BenchMaps.create(width);
+        map = new TileMap();
+        map.loadMap(folder, mode.equals("streamed") ? BenchMaps.CHUNKED : BenchMaps.TEXT);
+
+        if (mode.equals("atlas") || mode.equals("cached")) {
+            TextureAtlas atlas = new TextureAtlas(256);
+            atlas.add(map);
+            atlas.pack(null);
+            map.useAtlas(atlas);
+        }
+        map.setChunkCaching(mode.equals("cached"));
+
+        screen = new BufferedImage(562, 384, BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+        g.setClip(0, 0, screen.getWidth(), screen.getHeight());
+        maxScroll = Math.max(1, map.getPixelWidth() - screen.getWidth());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+        map.close();
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        scroll = (scroll + 1) % maxScroll;
+        map.draw(g, -scroll, 0);
+        return screen;
+    }
+}
@@ -0,0 +1,56 @@
+package game2D.bench;
+
+import game2D.TileMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TileMap.loadMap() for the text, binary and chunked binary
+ * formats. The tile images are cached by the map's AssetManager after
+ * the first load, as they are in the game, so this is the cost of
+ * reading the map itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TileMapLoadBenchmark {
+
+    @Param({"32", "512", "4096"})
+    int width;        // The map width in tiles
+
+    @Param({"text", "binary", "chunked"})
+    String format;
+
+    private String folder;
+    private String file;
+    private TileMap map;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        folder = BenchMaps.create(width);
+        file = format.equals("text") ? BenchMaps.TEXT
+                : format.equals("binary") ? BenchMaps.BINARY : BenchMaps.CHUNKED;
+        map = new TileMap();
+    }
+
+    @Benchmark
+    public TileMap load() {
+        if (!map.loadMap(folder, file)) throw new IllegalStateException("Failed to load " + file);
+        return map;
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that once the game has warmed up, updating and drawing a frame
+ * allocates nothing, so the garbage collector never has to stop the game
+ * to clear up after it.
+ * <p>
+ * The game is run headless with a script of key presses that runs the
+ * player back and forth and jumps, and the bytes allocated by the game
+ * loop's thread are counted over two stretches of ticks after warming up.
+ * The JIT can still allocate now and again while it recompiles code, so the
+ * quieter of the two stretches is the one that has to allocate nothing.
+ */
+public class GameAllocationTest {
+
+    private static final int WARMUP_TICKS = 10000;
+    private static final int MEASURED_TICKS = 10000;
+
+    @Test
+    public void updateAndDrawDoNotAllocate() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "Allocation counting is not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final long thread = Thread.currentThread().getId();
+        final long[] allocated = new long[3];    // The bytes allocated at the start and end of each measured stretch
+
+        Game game = new Game() {
+            int tick = 0;
+
+            public void update(long elapsed) {
+                if (tick == WARMUP_TICKS) allocated[0] = threads.getThreadAllocatedBytes(thread);
+                if (tick == WARMUP_TICKS + MEASURED_TICKS) allocated[1] = threads.getThreadAllocatedBytes(thread);
+                if (tick == WARMUP_TICKS + 2 * MEASURED_TICKS) allocated[2] = threads.getThreadAllocatedBytes(thread);
+
+                // Every 5 seconds put the player back at the start, then run
+                // right, turn round and jump now and again
+                int t = tick % 600;
+                if (t == 0) {
+                    player.setX(20);
+                    player.setY(100);
+                    player.setVelocityX(0);
+                    player.setVelocityY(0);
+                }
+                if (t == 0 || t == 100) right = true;
+                if (t == 300 || t == 301) left = true;
+                if (tick % 120 == 60) up = true;
+
+                tick++;
+                super.update(elapsed);
+            }
+        };
+        game.init("map1.txt");
+        game.setFixedTimestep(120, 5);
+        game.runHeadless(562, 384, WARMUP_TICKS + 2 * MEASURED_TICKS + 1, true);
+
+        assertFalse(game.gameOver, "The script should keep the player alive");
+
+        long bytes = Math.min(allocated[1] - allocated[0], allocated[2] - allocated[1]);
+        assertEquals(0, bytes, "Allocated " + bytes + " bytes in " + MEASURED_TICKS + " ticks");
+    }
+}
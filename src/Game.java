@@ -2,6 +2,7 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import game2D.*;
 
@@ -22,6 +23,7 @@ public class Game extends GameCore {
     // Useful game constants
     static int screenWidth = 562;
     static int screenHeight = 384;
+    static int ticksPerSecond = 120; // How often the game world is updated
 
     int jumpsDone = 0;//keeps track of jumps before landing so as to only allow 2 before landing on solid surface.
 
@@ -32,23 +34,64 @@ public class Game extends GameCore {
     boolean up = false;
     boolean left;
     boolean right;
-    boolean falling = true;
 
     boolean gameOver = false;
     // Game resources
-    Animation playerAnim;
+    Animation playerAnim;    // The player's current animation, one of those below
+    Animation pauseAnim;
+    Animation leftAnim;
+    Animation rightAnim;
+    Animation upAnim;
+    Animation deadAnim;
 
     Sprite player = null;
-    Sprite enemy1 = null;
-    Sprite enemy2 = null;
-    Sprite enemy3 = null;
 
-
-    TileMap tmap = new TileMap();    // Our tile map, note that we load it in init()
+    // The enemies' state is kept in an entity store and updated in bulk,
+    // with a sprite per enemy to draw it
+    EntityStore enemies = new EntityStore();
+    ParallelUpdater enemyUpdater = new ParallelUpdater(); // Updates large numbers of enemies across cores
+    ArrayList<EntitySprite> enemySprites = new ArrayList<EntitySprite>();
+    Animation enemyAnim;
+
+    // Enemy start positions for each level as x,y pairs, the first row is
+    // used for any level without its own row
+    static final float[][] enemyPositions = {
+            {230, 150, 400, 180, 800, 150},
+            {230, 150, 400, 185, 800, 100}, // level 1
+            {270, 170, 450, 200, 800, 250}  // level 2
+    };
+
+    // The map for each level, level 1 first
+    static final String[] levelMaps = {
+            "map1.txt",
+            "map2.txt"
+    };
+
+    // Background music for each level, the first is used for any level without its own
+    static final String[] levelMusic = {
+            "sounds/song.wav"
+    };
+
+
+    TileMap tmap = new TileMap(getAssets());    // Our tile map, note that we load it in init()
+    TextureAtlas atlas = new TextureAtlas(256);    // Holds the sprite and tile images, filled in init()
+    SoundEngine sounds = new SoundEngine();    // Plays the sound effects, started in main()
+    int jumpSound;    // Sound effect ids, loaded in init()
+    int deathSound;
+    MusicPlayer music = new MusicPlayer();    // Streams the background music, started in main()
+    MapLoader mapLoader = new MapLoader(getAssets());    // Loads the next level's map in the background
+    GraphicsConfiguration atlasConfig;    // The display the atlas is packed for, null when headless
+    boolean drawFromAtlas = false;    // Draw the sprites and tiles from the atlas, turned on in main() for windowed runs
+    CollisionWorld world = new CollisionWorld(tmap);    // Moves sprites through the tile map
+    SpatialHash enemyHash = new SpatialHash(64);        // Finds the enemies near the player
+    ArrayList<Sprite> nearby = new ArrayList<Sprite>(); // The enemies found near the player
 
 
     private int level = 1; //keep track of current level
+    private final AtomicInteger pendingLevel = new AtomicInteger(); //the level to start once its map has loaded, 0 if none, also set by the M/N keys
+    private int failedLevel = 0; //a level whose map failed to load, not asked for again until the player leaves the goal
     private String status = "Alive :D";
+    private String statusMessage = "Status: " + status; // The status line drawn each frame, updated by setStatus()
 
     private int animDuration = 500;
 
@@ -57,49 +100,131 @@ public class Game extends GameCore {
      * The obligatory main method that creates
      * an instance of our class and starts it running
      *
-     * @param args The list of parameters this program might use (ignored)
+     * Passing -headless [ticks] [-draw] runs the game without a window for
+     * the given number of updates (10000 by default), optionally drawing
+     * offscreen, and reports how many updates per second were achieved.
+     * Passing -timings file.csv writes the time taken by recent frames
+     * to the given file when the game ends.
+     *
+     * @param args The list of parameters this program might use
      */
     public static void main(String[] args) {
-        Sound s = new Sound("sounds/song.wav");//load background music to be played
-        s.start();
+        if (args.length > 0 && args[0].equals("-headless")) {
+            runHeadless(args);
+            return;
+        }
 
         Game gct = new Game();
+        // Draw the sprites and tiles from a texture atlas. Like the chunk cache below,
+        // this pays off on an accelerated display but not when drawing in software,
+        // so it is left off for headless runs.
+        gct.drawFromAtlas = true;
         gct.init("map1.txt");
+        gct.setTimingLog(getTimingLog(args));
+        // Update the game world at a steady rate, independent of how fast we draw
+        gct.setFixedTimestep(ticksPerSecond, 5);
+        // The map is static, so draw it from cached chunks rather than tile by tile.
+        // This pays off on an accelerated display but not when drawing in software,
+        // so it is left off for headless runs.
+        gct.tmap.setChunkCaching(true);
+        // Play sound effects through the mixer. Headless runs leave it stopped, so they are silent.
+        gct.sounds.start();
+        // Stream the background music rather than loading it all into memory
+        gct.music.start();
+        gct.music.play(levelMusic[0], true);
         // Start in windowed mode with the given screen height and width
         gct.run(false, screenWidth, screenHeight);
     }
 
+    /**
+     * Runs the game for a fixed number of updates with no window and
+     * prints the update rate and the final game state.
+     *
+     * @param args The command line arguments passed to main
+     */
+    private static void runHeadless(String[] args) {
+        long ticks = 10000;
+        boolean render = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-draw")) render = true;
+            else if (args[i].equals("-timings")) i++;
+            else ticks = Long.parseLong(args[i]);
+        }
+
+        Game gct = new Game();
+        gct.init("map1.txt");
+        gct.setFixedTimestep(ticksPerSecond, 5);
+        gct.setTimingLog(getTimingLog(args));
+        float tps = gct.runHeadless(screenWidth, screenHeight, ticks, render);
+
+        System.out.println("Ran " + ticks + " ticks at " + tps + " ticks per second");
+        FrameTimer timer = gct.getFrameTimer();
+        System.out.printf("Frame time p50 %.3fms, p99 %.3fms, max %.3fms%n",
+                timer.getPercentile(FrameTimer.FRAME, 50) / 1e6,
+                timer.getPercentile(FrameTimer.FRAME, 99) / 1e6,
+                timer.getMax(FrameTimer.FRAME) / 1e6);
+        System.out.println("Level " + gct.level + ", status: " + gct.status
+                + ", player at " + gct.player.getX() + "," + gct.player.getY());
+    }
+
+    /**
+     * @param args The command line arguments passed to main
+     * @return The file given after -timings, or null if there isn't one
+     */
+    private static String getTimingLog(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++)
+            if (args[i].equals("-timings")) return args[i + 1];
+        return null;
+    }
+
     /**
      * Initialise the class, e.g. set up variables, load images,
      * create animations, register event handlers
      */
     public void init(String mapFile) {
+        // Read all our sprite images up front so that nothing is loaded from disk during play
+        getAssets().preloadManifest("images/manifest.txt");
+
+        // Decode the sound effects up front too. Sounds already loaded for an earlier level are not loaded again.
+        jumpSound = sounds.load("sounds/jump.wav");
+        deathSound = sounds.load("sounds/death.wav");
 
         // Load the tile map and print it out so we can check it is valid
         tmap.loadMap("maps", mapFile);
 
         //create animations for player and enemies
-        playerAnim = new Animation();
-        playerAnim.addFrame(loadImage("images/sprites/player_pause1.png"), animDuration);
-        playerAnim.addFrame(loadImage("images/sprites/player_pause2.png"), animDuration);
-
-        Animation enemyAnim = new Animation();
-        enemyAnim.addFrame(loadImage("images/sprites/enemy_0.png"), animDuration);
-        enemyAnim.addFrame(loadImage("images/sprites/enemy_1.png"), animDuration);
+        pauseAnim = createAnimation("images/sprites/player_pause1.png", "images/sprites/player_pause2.png");
+        leftAnim = createAnimation("images/sprites/player_left1.png", "images/sprites/player_left2.png");
+        rightAnim = createAnimation("images/sprites/player_right1.png", "images/sprites/player_right2.png");
+        upAnim = createAnimation("images/sprites/player_up1.png", "images/sprites/player_up2.png");
+        deadAnim = createAnimation("images/sprites/player_dead.png");
+        playerAnim = pauseAnim;
+
+        enemyAnim = createAnimation("images/sprites/enemy_0.png", "images/sprites/enemy_1.png");
         enemyAnim.play();
 
+        // Pack the sprite and tile images into one atlas and draw everything from it.
+        // Images already packed for an earlier level are not packed again.
+        if (drawFromAtlas) {
+            Animation[] anims = {pauseAnim, leftAnim, rightAnim, upAnim, deadAnim, enemyAnim};
+            for (Animation anim : anims) atlas.add(anim);
+            atlas.add(tmap);
+            atlasConfig = GraphicsEnvironment.isHeadless() ? null
+                    : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+            atlas.pack(atlasConfig);
+            for (Animation anim : anims) anim.useAtlas(atlas);
+            tmap.useAtlas(atlas);
+        }
+
         // Initialise the player with an animation
         player = new Sprite(playerAnim);
 
-
-        //Initialise the enemies with animation
-        enemy1 = new Sprite(enemyAnim);
-        enemy2 = new Sprite(enemyAnim);
-        enemy3 = new Sprite(enemyAnim);
-
         //initialise the game world
         initialiseGame();
 
+        //start reading the next level's map while this one is played
+        mapLoader.prefetch("maps", levelMaps[level % levelMaps.length]);
+
         System.out.println(tmap);//output to show the map
     }
 
@@ -117,43 +242,26 @@ public class Game extends GameCore {
         player.show();
 
         setupEnemies();
-
-        enemy1.show();
-        enemy2.show();
-        enemy3.show();
     }
 
     /**
      * Method to initially setup the enemy locations, based on the level
      */
     private void setupEnemies() {
-        switch (level) {
-            case 1://if the level is 1
-                enemy1.setX(230);
-                enemy2.setX(400);
-                enemy3.setX(800);
-
-                enemy1.setY(150);
-                enemy2.setY(185);
-                enemy3.setY(100);
-                break;
-            case 2://if the level is 2
-                enemy1.setX(270);
-                enemy2.setX(450);
-                enemy3.setX(800);
-
-                enemy1.setY(170);
-                enemy2.setY(200);
-                enemy3.setY(250);
-                break;
-            default://if an unexpected value is assigned to level
-                enemy1.setX(230);
-                enemy2.setX(400);
-                enemy3.setX(800);
-
-                enemy1.setY(150);
-                enemy2.setY(180);
-                enemy3.setY(150);
+        //use the positions for this level, or the default ones if there aren't any
+        float[] positions = enemyPositions[(level > 0 && level < enemyPositions.length) ? level : 0];
+
+        enemies.clear();
+        enemySprites.clear();
+        for (int i = 0; i < positions.length; i += 2) {//for each enemy position
+            int handle = enemies.create(positions[i], positions[i + 1],
+                    enemyAnim.getImage().getWidth(null), enemyAnim.getImage().getHeight(null));
+            enemies.setPatrol(handle, 250, 850, 0.04f);//walk back and forth between x=250 and x=850
+
+            //each enemy plays the shared enemy clip with its own playhead
+            EntitySprite enemy = new EntitySprite(new Animation(enemyAnim.getClip()), enemies, handle);
+            enemy.show();
+            enemySprites.add(enemy);
         }
     }
 
@@ -163,7 +271,8 @@ public class Game extends GameCore {
     public void draw(Graphics2D g) {
         // First work out how much we need to shift the view
         // in order to see where the player is.
-        int xo = (int) -player.getX() + 20;//offset camera by 20 from where the player is
+        float alpha = getInterpolation();
+        int xo = (int) -player.getInterpolatedX(alpha) + 20;//offset camera by 20 from where the player is
         int yo = 0;
 
         g.setColor(Color.white);
@@ -172,23 +281,31 @@ public class Game extends GameCore {
 
         // Apply offsets to sprites and draw
         player.setOffsets(xo, yo);
-        enemy1.setOffsets(xo, yo);
-        enemy2.setOffsets(xo, yo);
-        enemy3.setOffsets(xo, yo);
-
-        enemy1.draw(g);
-        enemy2.draw(g);
-        enemy3.draw(g);
+        for (int i = 0; i < enemySprites.size(); i++) {
+            EntitySprite enemy = enemySprites.get(i);
+            enemy.setOffsets(xo, yo);
+            enemy.draw(g, alpha);
+        }
 
-        player.draw(g);
+        player.draw(g, alpha);
 
         // Apply offsets to tile map and draw  it
         tmap.draw(g, xo, yo);
 
         // Show status information
-        String msg = "Status: " + status;
         g.setColor(Color.darkGray);
-        g.drawString(msg, getWidth() - 150, 50);
+        g.drawString(statusMessage, getWidth() - 150, 50);
+    }
+
+    /**
+     * Changes the player's status and the status line drawn with it, so
+     * that draw() doesn't have to build the line every frame.
+     *
+     * @param status The new status
+     */
+    private void setStatus(String status) {
+        this.status = status;
+        statusMessage = "Status: " + status;
     }
 
     /**
@@ -197,11 +314,13 @@ public class Game extends GameCore {
      * @param elapsed The elapsed time between this call and the previous call of elapsed
      */
     public void update(long elapsed) {
+        //change level between updates once the next map is ready, until then the world waits
+        if (pendingLevel.get() != 0 && !startPendingLevel()) return;
+
         if (!gameOver) { //if the game is running
-            // Make adjustments to the speed of the sprite due to gravity
-            if (falling) {
-                player.setVelocityY(player.getVelocityY() + (gravity * elapsed));
-            }
+            // Make adjustments to the speed of the sprite due to gravity,
+            // landing on a solid tile will cancel this out again
+            player.setVelocityY(player.getVelocityY() + (gravity * elapsed));
             player.setAnimationSpeed(1.0f);
 
             if (up) {//if the player is moving up
@@ -212,8 +331,7 @@ public class Game extends GameCore {
 
                         up = false;//reset up flag
                         updateAnim("up");
-                        Sound s = new Sound("sounds/jump.wav");//play jumping noise
-                        s.start();
+                        sounds.play(jumpSound);//play jumping noise
                         jumpsDone++;//increment jumps done this jump
                     }
                 }
@@ -240,28 +358,17 @@ public class Game extends GameCore {
                     updateAnim("right");
                 }
             }
-            //collect the enemies into an ArrayList for simple processing
-            ArrayList<Sprite> enemies = new ArrayList<Sprite>();
-            enemies.add(enemy1);
-            enemies.add(enemy2);
-            enemies.add(enemy3);
-
-            for (Sprite enemy : enemies) {//for each enemy
-                if ((enemy.getX() > 850 && enemy.isDirection()) || (enemy.getX() < 250 && !enemy.isDirection())) {//if the enemy is at the edge of the patrol area
-                    enemy.setDirection(!enemy.isDirection());//invert the direction boolean
-                }
-                if (enemy.isDirection()) {//if the enemy is moving right
-                    enemy.setVelocityX(0.04f);
-                } else {//if the enemy is moving left
-                    enemy.setVelocityX(-0.04f);
-                }
-                enemy.update(elapsed);
+            //turn round any enemies at the edge of their patrol area, then move
+            //them all through the tile map, turning round at walls next update.
+            //with only a few enemies this all happens on this thread
+            enemyUpdater.update(enemies, world, elapsed);
+            for (int i = 0; i < enemySprites.size(); i++) {
+                enemySprites.get(i).updateAnimation(elapsed);
             }
-            // Now update the sprites animation and position
-            player.update(elapsed);
 
-            // Then check for any collisions that may have occurred
+            // Now move the player through the tile map and check what it touched
             handleTileMapCollisions(player, elapsed);
+            player.updateAnimation(elapsed);
 
             //check for sprite collisions
             handleSpriteCollisions();
@@ -272,54 +379,58 @@ public class Game extends GameCore {
     }
 
 
+    /**
+     * Creates an animation that shows each of the given images in turn
+     * for animDuration milliseconds
+     *
+     * @param fileNames the image files for each frame
+     * @return the new animation
+     */
+    private Animation createAnimation(String... fileNames) {
+        Animation anim = new Animation();
+        for (String fileName : fileNames) {
+            anim.addFrame(loadImage(fileName), animDuration);
+        }
+        return anim;
+    }
+
     private void updateAnim(String direction) {
-        System.out.println(direction);
         switch (direction) {
             case "left"://if the left animation is requested
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_left1.png"), animDuration);
-                playerAnim.addFrame(loadImage("images/sprites/player_left2.png"), animDuration);
+                playerAnim = leftAnim;
                 break;
-
             case "right"://if the right animation is requested
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_right1.png"), animDuration);
-                playerAnim.addFrame(loadImage("images/sprites/player_right2.png"), animDuration);
+                playerAnim = rightAnim;
                 break;
             case "up"://if the jumping animation is requested
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_up1.png"), animDuration);
-                playerAnim.addFrame(loadImage("images/sprites/player_up2.png"), animDuration);
+                playerAnim = upAnim;
                 break;
             case "dead"://if the death animation is requested
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_dead.png"), animDuration);
+                playerAnim = deadAnim;
                 break;
             case "pause"://if the paused animation is requested
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_pause1.png"), animDuration);
-                playerAnim.addFrame(loadImage("images/sprites/player_pause2.png"), animDuration);
-                break;
             default://default for bad arguments
-                playerAnim = new Animation();
-                playerAnim.addFrame(loadImage("images/sprites/player_pause1.png"), animDuration);
-                playerAnim.addFrame(loadImage("images/sprites/player_pause2.png"), animDuration);
+                playerAnim = pauseAnim;
                 break;
         }
+        playerAnim.start();//play the animation from the beginning
         player.setAnimation(playerAnim);//set the animation to requested one
     }
 
     private void handleSpriteCollisions() {
-        //again group the enemies for easy processing
-        ArrayList<Sprite> enemies = new ArrayList<Sprite>();
-        enemies.add(enemy1);
-        enemies.add(enemy2);
-        enemies.add(enemy3);
+        //put the enemies into the spatial hash so we only need to check the ones near the player
+        enemyHash.clear();
+        for (int i = 0; i < enemySprites.size(); i++) {
+            enemyHash.insert(enemySprites.get(i));
+        }
+
+        nearby.clear();
+        enemyHash.query(player, nearby);
 
         boolean collided = false;//has the player collided with any NPCs
 
-        for (Sprite enemy : enemies) {//for each enemy
-            if (boundingBoxCollision(enemy, player)) {//if the player has collided with the enemy
+        for (int i = 0; i < nearby.size(); i++) {//for each enemy near the player
+            if (boundingBoxCollision(nearby.get(i), player)) {//if the player has collided with the enemy
                 collided = true;
             }
         }
@@ -344,59 +455,98 @@ public class Game extends GameCore {
     }
 
     /**
-     * Checks and handles collisions with the tile map for the
-     * given sprite 's'. Initial functionality is limited...
+     * Moves the given sprite 's' through the tile map, stopping it at
+     * solid tiles, and handles the effects of any special tiles it touches.
      *
      * @param s       The Sprite to check collisions for
      * @param elapsed How time has gone by
      */
     public void handleTileMapCollisions(Sprite s, long elapsed) {
-        // This method should check actual tile map collisions. For
-        // now it just checks if the player has gone off the bottom
-        // of the tile map.
+        int contacts = world.move(s, elapsed);
+
+        // Check if the player has gone off the bottom of the tile map
         if (s.getY() + s.getHeight() > tmap.getPixelHeight()) {
             // Put the player back on the map
             s.setY(tmap.getPixelHeight() - s.getHeight());
         }
 
-        int tileCoordX = (int) (s.getX() / tmap.getTileWidth());
-        int tileCoordY = (int) ((s.getY() + s.getHeight()) / tmap.getTileHeight());//offset by 1 so the player sits on top of the block
-
-        // here we will actually make each comparison twice, once using the lower left corner of the sprite,
-        // and once using the lower right corner of the sprite. this allows for more consistent collision detection
-        // and prevents the issue where the sprite would fall through a tile once halfway across it.
-        if (tmap.getTileChar(tileCoordX, tileCoordY) == 'p' || tmap.getTileChar(tileCoordX, tileCoordY) == 'b' ||
-                tmap.getTileChar(tileCoordX + 1, tileCoordY) == 'p' || tmap.getTileChar(tileCoordX + 1, tileCoordY) == 'b') {//if grass or dirt block touched
-            if (s.getVelocityY() > 0) {
-                s.setVelocityY(0); //stop the sprite from falling
-            }
-            s.setY((float) (tileCoordY * tmap.getTileHeight()) - s.getHeight());
-            falling = false;
+        if ((contacts & CollisionWorld.GROUND) != 0) {//if the sprite landed on a solid block such as grass or dirt
             jumpsDone = 0;
-        } else {
-            falling = true; //if the sprite is not touching grass or dirt, it must be falling. flag this.
         }
-        if (tmap.getTileChar(tileCoordX, tileCoordY) == 't' || tmap.getTileChar(tileCoordX + 1, tileCoordY) == 't') {//if touching the lava/fire blocks
+
+        // check every tile the sprite overlaps, plus the ones it is standing on
+        int flags = tmap.getFlagsAt(s.getX(), s.getY(), s.getWidth(), s.getHeight() + 1);
+        if ((flags & TileMap.HAZARD) != 0) {//if touching the lava/fire blocks
             endGame();
         }
-        if (tmap.getTileChar(tileCoordX, tileCoordY) == 'f' || tmap.getTileChar(tileCoordX + 1, tileCoordY) == 'f') {//if touching the finish flag
+        if ((flags & TileMap.GOAL) != 0) {//if touching the finish flag
             nextLevel();
+        } else {
+            failedLevel = 0;//off the flag, so a level that failed to load can be tried again
         }
     }
 
     /**
-     * method to change the level once the finish flag is reached
+     * method to change the level once the finish flag is reached. The new
+     * level starts at the beginning of the next update, see startPendingLevel()
      */
     private void nextLevel() {
-        if (level == 1) {//if the level is 1, load map 2 and set level to 2
-            init("map2.txt");
-            level = 2;
-        } else {//else if the level is 2, load the map 1 and set level to 1
-            level = 1;
-            init("map1.txt");
+        int next = level % levelMaps.length + 1;//go on to the next level, or back to level 1 after the last
+        if (next != failedLevel) {
+            pendingLevel.compareAndSet(0, next);
         }
     }
 
+    /**
+     * Swaps in the map for pendingLevel if it has loaded. The map is normally
+     * loaded in the background while the previous level is played, so this
+     * just has to swap the maps over and reset the player and enemies.
+     * Headless runs wait for the map, so that they always play the same way.
+     * If the map fails to load, the current level carries on instead, and
+     * reaching the goal does not ask for it again until the player has left it.
+     *
+     * @return true if the new level has started or failed to load, false if its map is still loading
+     */
+    private boolean startPendingLevel() {
+        int next = pendingLevel.get();//read once, the M/N keys can change it at any time
+        String mapFile = levelMaps[next - 1];
+        TileMap map;
+        try {
+            map = isHeadless() ? mapLoader.take("maps", mapFile) : mapLoader.poll("maps", mapFile);
+        } catch (IllegalStateException e) {
+            System.err.println("Failed to start level " + next + ":" + e);
+            failedLevel = next;
+            pendingLevel.compareAndSet(next, 0);//unless a key asked for another level meanwhile
+            return true;
+        }
+        if (map == null) return false;
+
+        //draw the new map the same way as the old one
+        if (drawFromAtlas) {
+            atlas.add(map);
+            atlas.pack(atlasConfig);
+            map.useAtlas(atlas);
+        }
+        map.setChunkCaching(tmap.isChunkCaching());
+        tmap.close();
+        tmap = map;
+        world.setTileMap(map);
+
+        level = next;
+        pendingLevel.compareAndSet(next, 0);//unless a key asked for another level meanwhile
+        failedLevel = 0;
+        updateAnim("pause");
+        initialiseGame();
+        System.out.println(tmap);//output to show the map
+
+        //fade over to this level's music, which carries on if it is the same track
+        music.crossfadeTo(levelMusic[(level < levelMusic.length) ? level : 0], 2000, true);
+
+        //and start reading the level after this one
+        mapLoader.prefetch("maps", levelMaps[level % levelMaps.length]);
+        return true;
+    }
+
     /**
      * method that stops the player from moving and is dead
      */
@@ -408,10 +558,9 @@ public class Game extends GameCore {
 
         gameOver = true;//this breaks the update loop until false
 
-        status = "Dead X.X";
+        setStatus("Dead X.X");
 
-        Sound s = new Sound("sounds/death.wav");//play death sound
-        s.start();
+        sounds.play(deathSound);//play death sound
     }
 
     /**
@@ -428,7 +577,7 @@ public class Game extends GameCore {
 
         updateAnim("pause");
 
-        status = "Alive :D";
+        setStatus("Alive :D");
 
         //reset these so the player doesn't begin the game moving
         right = false;
@@ -455,16 +604,13 @@ public class Game extends GameCore {
 
         if (key == KeyEvent.VK_F5) resetGame();
 
+        if (key == KeyEvent.VK_F3) setTimingOverlay(!isTimingOverlay());
+
 
         //keys M and N are used to test the map changing, if you can't beat the level without it ;)
-        if (key == KeyEvent.VK_M) {
-            level = 2;
-            init("map2.txt");
-        }
-        if (key == KeyEvent.VK_N) {
-            level = 1;
-            init("map1.txt");
-        }
+        //the switch happens at the start of the next update, in the same way as reaching the goal
+        if (key == KeyEvent.VK_M) pendingLevel.set(2);
+        if (key == KeyEvent.VK_N) pendingLevel.set(1);
     }
 
 
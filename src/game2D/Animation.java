@@ -1,26 +1,32 @@
 package game2D;
 
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.CropImageFilter;
-import java.awt.image.FilteredImageSource;
-import java.awt.image.ImageFilter;
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
+import java.io.File;
 
-import javax.swing.ImageIcon;
+import javax.imageio.ImageIO;
 
 /**
  * The Animation class manages a series of images (frames) and
  * the amount of time to display each frame.
+ * <p>
+ * The frames themselves are held in an AnimationClip, which never changes
+ * and can be shared. An Animation is a playhead over a clip: it keeps track
+ * of where it is up to, its speed and whether it is playing. Give each
+ * sprite its own Animation, sharing the clip, e.g.
+ * new Animation(other.getClip()), so that each one animates independently.
+ * An Animation is not synchronized and should only be used from one thread.
  *
  * @author David Cairns
  */
 public class Animation {
 
-    private ArrayList<AnimFrame> frames;    // The set of animation frames
+    private AnimationClip clip;                // The frames to play
     private int currFrameIndex;                // Current frame animation is on
     private long animTime;                    // Current animation time
-    private long totalDuration;                // Total animation time
     private float animSpeed = 1.0f;            // Animation speed, e.g. 2 will be twice as fast
 
     private boolean loop = true;            // True if the animation should continue looping
@@ -32,29 +38,44 @@ public class Animation {
      * Creates a new, empty Animation.
      */
     public Animation() {
-        frames = new ArrayList<AnimFrame>();
-        totalDuration = 0;
+        this(AnimationClip.EMPTY);
+    }
+
+    /**
+     * Creates a new Animation that plays the given clip from the start.
+     *
+     * @param clip The frames to play, which may be shared with other Animations
+     */
+    public Animation(AnimationClip clip) {
+        this.clip = clip;
         looped = false;
         start();
     }
 
     /**
      * Adds an image to the animation with the specified
-     * duration (time to display the image).
+     * duration (time to display the image). This makes a new clip
+     * with the extra frame, so it doesn't affect any other
+     * Animation sharing the old clip.
      *
      * @param image    The image to add
      * @param duration The time it should be displayed for
      */
-    public synchronized void addFrame(Image image, long duration) {
-        totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+    public void addFrame(Image image, long duration) {
+        clip = clip.withFrame(image, duration);
     }
 
+    /**
+     * @return The clip of frames this animation plays
+     */
+    public AnimationClip getClip() {
+        return clip;
+    }
 
     /**
      * Starts this animation over from the beginning.
      */
-    public synchronized void start() {
+    public void start() {
         animTime = 0;
         currFrameIndex = 0;
         looped = false;
@@ -66,14 +87,15 @@ public class Animation {
      *
      * @param elapsedTime Time that has elapsed since last call
      */
-    public synchronized void update(long elapsedTime) {
+    public void update(long elapsedTime) {
 
         // If we are paused, don't update the animation
         if (!play) return;
 
         elapsedTime = (long) (elapsedTime * animSpeed);
 
-        if (frames.size() > 1) {
+        if (clip.getFrameCount() > 1) {
+            long totalDuration = clip.getDuration();
             animTime += elapsedTime;
 
             if (animTime >= totalDuration) {
@@ -86,9 +108,10 @@ public class Animation {
                 looped = true;
             }
 
-            while (animTime > getFrame(currFrameIndex).endTime) {
-                currFrameIndex++;
-            }
+            // Move on to the frame for the new time. Frames only move forward
+            // (until the animation loops) so a frame set with setAnimationFrame()
+            // is kept until the time catches up with it.
+            currFrameIndex = Math.max(currFrameIndex, clip.getFrameAt(animTime));
 
             // If we hit a stopFrame, pause the animation
             // It will be -1 if we should not stop at this point
@@ -106,23 +129,38 @@ public class Animation {
      *
      * @return The current image that should be displayed
      */
-    public synchronized Image getImage() {
-        if (frames.size() == 0) {
+    public Image getImage() {
+        if (clip.getFrameCount() == 0) {
+            return null;
+        } else {
+            return clip.getImage(currFrameIndex);
+        }
+    }
+
+    /**
+     * Gets the atlas region holding this Animation's current image,
+     * if useAtlas() has been called with an atlas containing it.
+     *
+     * @return The region to draw, or null to draw getImage() instead
+     */
+    public TextureAtlas.Region getRegion() {
+        if (clip.getFrameCount() == 0) {
             return null;
         } else {
-            return getFrame(currFrameIndex).image;
+            return clip.getRegion(currFrameIndex);
         }
     }
 
     /**
-     * Works out which frame to display, incorporating
-     * the offset.
+     * Looks up each frame's image in 'atlas' so that the frames are
+     * drawn from the atlas pages. Frames whose image is not in the
+     * atlas are drawn from their own image as normal. Animations
+     * created from this one's clip afterwards draw from the atlas too.
      *
-     * @param i The frame index to get
-     * @return The animation frame corresponding to the index
+     * @param atlas The packed atlas to draw from, or null to stop using one
      */
-    private AnimFrame getFrame(int i) {
-        return (AnimFrame) frames.get(i);
+    public void useAtlas(TextureAtlas atlas) {
+        clip = clip.withAtlas(atlas);
     }
 
     /**
@@ -135,10 +173,9 @@ public class Animation {
      */
     public Image getFrameImage(int i) {
 
-        if (i < 0 || i >= frames.size()) return null;
+        if (i < 0 || i >= clip.getFrameCount()) return null;
 
-        AnimFrame frame = frames.get(i);
-        return frame.image;
+        return clip.getImage(i);
     }
 
     /**
@@ -162,6 +199,8 @@ public class Animation {
     /**
      * Loads a complete animation from an animation sheet and adds each
      * frame in the sheet to the animation with the given frameDuration.
+     * The sheet is decoded once and the frames are fully loaded before
+     * this returns, so they can be drawn and sized straight away.
      *
      * @param fileName      The path to the file to load the animations from
      * @param rows          How many rows there are in the sheet
@@ -169,7 +208,17 @@ public class Animation {
      * @param frameDuration The duration of each frame
      */
     public void loadAnimationFromSheet(String fileName, int columns, int rows, int frameDuration) {
-        Image sheet = new ImageIcon(fileName).getImage();
+        BufferedImage sheet;
+        try {
+            sheet = ImageIO.read(new File(fileName));
+        } catch (Exception e) {
+            sheet = null;
+        }
+        if (sheet == null) {
+            System.err.println("Failed to load sprite sheet '" + fileName + "'");
+            return;
+        }
+
         Image[] images = getImagesFromSheet(sheet, columns, rows);
 
         for (int i = 0; i < images.length; i++) {
@@ -181,13 +230,18 @@ public class Animation {
     /**
      * Loads a set of images from a sprite sheet so that they can be added to an animation.
      * Courtesy of Donald Robertson.
+     * <p>
+     * Each frame is copied into its own image rather than cropped with an
+     * image filter, so it is complete as soon as it is returned rather than
+     * being produced the first time it is drawn. Each frame is then converted
+     * for the display in the same way as images loaded by AssetManager.
      *
      * @param sheet
      * @param rows
      * @param columns
      * @return
      */
-    private Image[] getImagesFromSheet(Image sheet, int columns, int rows) {
+    private Image[] getImagesFromSheet(BufferedImage sheet, int columns, int rows) {
 
         // basic method to achieve split of sprite sheet
         // overloading could be used to achieve more complex things 
@@ -201,24 +255,29 @@ public class Animation {
         // easiest way to count as going through sprite sheet as though it is a 2d array
         int count = 0;
 
+        // the display to convert the frames for, if there is one
+        GraphicsConfiguration gc = GraphicsEnvironment.isHeadless() ? null
+                : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+
         // initialise width & height of split up images
-        int width = sheet.getWidth(null) / columns;
-        int height = sheet.getHeight(null) / rows;
+        int width = sheet.getWidth() / columns;
+        int height = sheet.getHeight() / rows;
 
         // for each column in each row
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                // create an image filter
-                // top left (x) = j*width, (y) = i*height
-                // extract rectangular region of width and height from origin x,y
-                ImageFilter cropper = new CropImageFilter(j * width, i * height, width, height);
+                // create an empty image for the frame
+                BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 
-                // create image source based on original sprite sheet with filter applied
-                // results in image source for cropped image being generated
-                FilteredImageSource cropped = new FilteredImageSource(sheet.getSource(), cropper);
+                // copy the rectangular region of width and height at
+                // top left (x) = j*width, (y) = i*height into it
+                Graphics2D g = frame.createGraphics();
+                g.drawImage(sheet, 0, 0, width, height,
+                        j * width, i * height, (j + 1) * width, (i + 1) * height, null);
+                g.dispose();
 
-                // create a new image using generated image source and store in appropriate array element
-                split[count] = Toolkit.getDefaultToolkit().createImage(cropped);
+                // store the frame in the appropriate array element
+                split[count] = AssetManager.makeCompatible(frame, gc);
 
                 // increment count to prevent elements being overwritten
                 count++;
@@ -242,7 +301,7 @@ public class Animation {
      * @param frame
      */
     public void pauseAt(int frame) {
-        if ((frame < 0) || (frame >= frames.size()))
+        if ((frame < 0) || (frame >= clip.getFrameCount()))
             stopFrame = 0;
         else
             stopFrame = frame;
@@ -270,28 +329,7 @@ public class Animation {
      * @param f The frame to shift to.
      */
     public void setAnimationFrame(int f) {
-        if (f < 0 || f >= frames.size()) return;
+        if (f < 0 || f >= clip.getFrameCount()) return;
         currFrameIndex = f;
     }
-
-    /**
-     * Private class to hold information about a given
-     * animation frame.
-     */
-    private class AnimFrame {
-
-        Image image;    // The image for a frame.
-        long endTime;    // The time at which this frame ends.
-
-        /**
-         * Create a new frame with the given image and end time.
-         *
-         * @param image   The image to use
-         * @param endTime The associated end time
-         */
-        public AnimFrame(Image image, long endTime) {
-            this.image = image;
-            this.endTime = endTime;
-        }
-    }
 }
@@ -0,0 +1,135 @@
+package game2D;
+
+import java.awt.Image;
+import java.util.Arrays;
+
+/**
+ * An AnimationClip is the fixed part of an animation: its frame images and
+ * how long each one is shown for. A clip never changes once it is created,
+ * so any number of Animations (one per sprite) can share the same clip and
+ * play it independently without any locking.
+ * <p>
+ * The end time of each frame is stored as a running total, so the frame
+ * for a given time is found with a binary search rather than by stepping
+ * through the frames.
+ */
+public final class AnimationClip {
+
+    /**
+     * A clip with no frames.
+     */
+    public static final AnimationClip EMPTY = new AnimationClip(new Image[0], new long[0]);
+
+    private final Image[] images;                    // The image for each frame
+    private final long[] endTimes;                    // The time at which each frame ends
+    private final TextureAtlas.Region[] regions;    // Where each image is in an atlas, if any
+
+    /**
+     * Creates a clip that shows each image in turn for the matching duration.
+     *
+     * @param images    The image for each frame
+     * @param durations The time each frame should be displayed for
+     */
+    public AnimationClip(Image[] images, long[] durations) {
+        if (images.length != durations.length)
+            throw new IllegalArgumentException("Each frame needs one image and one duration");
+
+        this.images = images.clone();
+        this.endTimes = new long[durations.length];
+        this.regions = new TextureAtlas.Region[images.length];
+
+        long total = 0;
+        for (int i = 0; i < durations.length; i++) {
+            total += durations[i];
+            endTimes[i] = total;
+        }
+    }
+
+    private AnimationClip(Image[] images, long[] endTimes, TextureAtlas.Region[] regions) {
+        this.images = images;
+        this.endTimes = endTimes;
+        this.regions = regions;
+    }
+
+    /**
+     * Creates a copy of this clip with an extra frame on the end.
+     *
+     * @param image    The image to add
+     * @param duration The time it should be displayed for
+     * @return The new clip
+     */
+    public AnimationClip withFrame(Image image, long duration) {
+        int n = images.length;
+        Image[] newImages = Arrays.copyOf(images, n + 1);
+        long[] newEndTimes = Arrays.copyOf(endTimes, n + 1);
+        TextureAtlas.Region[] newRegions = Arrays.copyOf(regions, n + 1);
+        newImages[n] = image;
+        newEndTimes[n] = getDuration() + duration;
+        return new AnimationClip(newImages, newEndTimes, newRegions);
+    }
+
+    /**
+     * Creates a copy of this clip whose frames are drawn from the pages
+     * of 'atlas'. Frames whose image is not in the atlas are drawn from
+     * their own image as normal.
+     *
+     * @param atlas The packed atlas to draw from, or null to stop using one
+     * @return The new clip
+     */
+    public AnimationClip withAtlas(TextureAtlas atlas) {
+        TextureAtlas.Region[] newRegions = new TextureAtlas.Region[images.length];
+        if (atlas != null) {
+            for (int i = 0; i < images.length; i++)
+                newRegions[i] = atlas.getRegion(images[i]);
+        }
+        return new AnimationClip(images, endTimes, newRegions);
+    }
+
+    /**
+     * @return The number of frames in the clip
+     */
+    public int getFrameCount() {
+        return images.length;
+    }
+
+    /**
+     * @return The total time taken to show every frame once
+     */
+    public long getDuration() {
+        return (endTimes.length == 0) ? 0 : endTimes[endTimes.length - 1];
+    }
+
+    /**
+     * Finds the frame to show 'time' milliseconds into the clip. A frame is
+     * shown up to and including its end time.
+     *
+     * @param time The time into the clip, 0 to getDuration()
+     * @return The index of the frame to show
+     */
+    public int getFrameAt(long time) {
+        int lo = 0;
+        int hi = endTimes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (endTimes[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @param i The index of a frame
+     * @return The image for frame 'i'
+     */
+    public Image getImage(int i) {
+        return images[i];
+    }
+
+    /**
+     * @param i The index of a frame
+     * @return The atlas region for frame 'i', or null if it has none
+     */
+    public TextureAtlas.Region getRegion(int i) {
+        return regions[i];
+    }
+}
@@ -0,0 +1,277 @@
+package game2D;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AssetManager loads images and keeps them in a cache so that each file is
+ * only read and decoded once, however many times it is asked for. Everyone
+ * asking for the same file gets the same Image object.
+ * <p>
+ * The cache has a memory budget. When it is exceeded, the images that have
+ * gone unused the longest are dropped from the cache (anything still holding
+ * them can carry on using them). Images are decoded fully before they are
+ * returned, so they are ready to draw and report their real size straight
+ * away.
+ * <p>
+ * The cache can be filled up front with preload(), so that nothing needs
+ * to be read from disk once the game is running.
+ * <p>
+ * Each image is converted once, as it is loaded, to the pixel format of
+ * the display (see makeCompatible()), so that Java2D can draw it with a
+ * straight copy and cache it in video memory.
+ */
+public class AssetManager {
+
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;    // 64MB
+
+    // The cached images by file name, in least recently used order
+    private final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75f, true);
+    private long budget;        // The most memory the cached images should use in bytes
+    private long used = 0;        // The memory the cached images use in bytes
+    private GraphicsConfiguration gc = defaultConfiguration();    // The display images are converted for
+
+    /**
+     * Creates an asset manager with the default memory budget.
+     */
+    public AssetManager() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Creates an asset manager with the given memory budget.
+     *
+     * @param budget The most memory the cached images should use in bytes
+     */
+    public AssetManager(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the image loaded from 'fileName', reading it from disk only
+     * if it is not already in the cache.
+     *
+     * @param fileName The path to the image file
+     * @return The image, or null if it could not be loaded
+     */
+    public synchronized Image getImage(String fileName) {
+        Image img = images.get(fileName);
+        if (img != null) return img;
+
+        img = load(fileName);
+        if (img == null) return null;
+
+        images.put(fileName, img);
+        used += sizeOf(img);
+        evict(fileName);
+        return img;
+    }
+
+    /**
+     * Loads each of the given images into the cache.
+     *
+     * @param fileNames The paths to the image files
+     */
+    public void preload(String... fileNames) {
+        for (String fileName : fileNames)
+            getImage(fileName);
+    }
+
+    /**
+     * Loads every image listed in a manifest file into the cache. The
+     * manifest lists one image path per line. Blank lines and lines
+     * starting with // are ignored.
+     *
+     * @param manifest The path to the manifest file
+     * @return true if the manifest was read successfully
+     */
+    public boolean preloadManifest(String manifest) {
+        try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("//")) continue;
+                getImage(line);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to read asset manifest '" + manifest + "':" + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param fileName The path to an image file
+     * @return true if the image is currently in the cache
+     */
+    public synchronized boolean isLoaded(String fileName) {
+        return images.containsKey(fileName);
+    }
+
+    /**
+     * @return The memory used by the cached images in bytes
+     */
+    public synchronized long getMemoryUsed() {
+        return used;
+    }
+
+    /**
+     * @return The most memory the cached images should use in bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Changes the memory budget, dropping images from the cache if
+     * they no longer fit.
+     *
+     * @param budget The most memory the cached images should use in bytes
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict(null);
+    }
+
+    /**
+     * @return The graphics configuration loaded images are converted for,
+     * null when there is no display
+     */
+    public synchronized GraphicsConfiguration getGraphicsConfiguration() {
+        return gc;
+    }
+
+    /**
+     * Changes the graphics configuration that images loaded from now on are
+     * converted for, e.g. to the configuration of the game's window.
+     *
+     * @param gc The graphics configuration, or null to convert for no display
+     */
+    public synchronized void setGraphicsConfiguration(GraphicsConfiguration gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Drops every image from the cache.
+     */
+    public synchronized void clear() {
+        images.clear();
+        used = 0;
+    }
+
+    /**
+     * Reads and decodes an image file.
+     *
+     * @param fileName The path to the image file
+     * @return The image, or null if it could not be loaded
+     */
+    protected Image load(String fileName) {
+        try {
+            BufferedImage img = ImageIO.read(new File(fileName));
+            if (img == null) {
+                System.err.println("Unsupported image format '" + fileName + "'");
+                return null;
+            }
+            return makeCompatible(img, gc);
+        } catch (Exception e) {
+            System.err.println("Failed to load image '" + fileName + "':" + e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops the least recently used images until the cache is within
+     * budget, but never the image called 'keep'.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Image>> it = images.entrySet().iterator();
+        while (used > budget && it.hasNext()) {
+            Map.Entry<String, Image> e = it.next();
+            if (e.getKey().equals(keep)) continue;
+            used -= sizeOf(e.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * @return An estimate of the memory used by 'img' in bytes
+     */
+    private static long sizeOf(Image img) {
+        return 4L * Math.max(img.getWidth(null), 0) * Math.max(img.getHeight(null), 0);
+    }
+
+    /**
+     * Copies 'img' into an image in the pixel format of 'gc', with the least
+     * transparency that it needs (see getTransparency()). Opaque images such
+     * as solid tiles and images with fully clear backgrounds such as most
+     * sprites can then be drawn without blending.
+     *
+     * @param img The image to convert
+     * @param gc  The graphics configuration to convert for, or null to use
+     *            plain RGB or ARGB images when there is no display
+     * @return The converted image
+     */
+    public static BufferedImage makeCompatible(BufferedImage img, GraphicsConfiguration gc) {
+        int transparency = getTransparency(img);
+        int w = img.getWidth();
+        int h = img.getHeight();
+
+        BufferedImage copy;
+        if (gc != null)
+            copy = gc.createCompatibleImage(w, h, transparency);
+        else if (transparency == Transparency.OPAQUE)
+            copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        else
+            copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+
+    /**
+     * Finds the transparency an image actually needs, by checking its pixels
+     * rather than trusting its format (PNG files often have an alpha channel
+     * that is never used).
+     *
+     * @param img The image to check
+     * @return Transparency.OPAQUE if every pixel is opaque, BITMASK if every
+     * pixel is either opaque or fully clear, otherwise TRANSLUCENT
+     */
+    public static int getTransparency(BufferedImage img) {
+        if (img.getTransparency() == Transparency.OPAQUE) return Transparency.OPAQUE;
+
+        int w = img.getWidth();
+        int[] row = new int[w];
+        int result = Transparency.OPAQUE;
+        for (int y = 0; y < img.getHeight(); y++) {
+            img.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                int alpha = row[x] >>> 24;
+                if (alpha == 0) result = Transparency.BITMASK;
+                else if (alpha != 255) return Transparency.TRANSLUCENT;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The default screen's graphics configuration, or null if there is no display
+     */
+    private static GraphicsConfiguration defaultConfiguration() {
+        if (GraphicsEnvironment.isHeadless()) return null;
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+    }
+}
@@ -0,0 +1,230 @@
+package game2D;
+
+import java.util.List;
+
+/**
+ * CollisionWorld moves sprites through a TileMap, stopping them when they
+ * run into solid tiles. Movement is resolved as a swept box, first along
+ * the x axis and then along the y axis, checking every tile the sprite
+ * would pass through on the way rather than just where it ends up. This
+ * means fast sprites, or a long elapsed time after a frame hitch, can't
+ * skip over a platform.
+ * <p>
+ * Tiles flagged TileMap.SOLID block movement in every direction. Tiles
+ * flagged TileMap.ONE_WAY only block a sprite moving down onto them, so
+ * it can jump up through them and land on top.
+ */
+public class CollisionWorld {
+
+    // Contact flags returned by move(), combined as a bitmask
+    public static final int GROUND = 1;        // The sprite landed on a tile
+    public static final int CEILING = 2;    // The sprite hit its head on a tile
+    public static final int WALL_LEFT = 4;    // The sprite ran into a tile on its left
+    public static final int WALL_RIGHT = 8;    // The sprite ran into a tile on its right
+
+    private TileMap map;    // The tile map sprites collide with
+
+    /**
+     * Creates a collision world for the given tile map.
+     *
+     * @param map The tile map to collide sprites with
+     */
+    public CollisionWorld(TileMap map) {
+        this.map = map;
+    }
+
+    /**
+     * @return The tile map sprites collide with
+     */
+    public TileMap getTileMap() {
+        return map;
+    }
+
+    /**
+     * Changes the tile map sprites collide with, e.g. when a new level is loaded.
+     *
+     * @param map The tile map to collide sprites with
+     */
+    public void setTileMap(TileMap map) {
+        this.map = map;
+    }
+
+    /**
+     * Moves the sprite 's' by its velocity over 'elapsed' milliseconds,
+     * stopping it at any solid tiles in the way. The sprite's velocity is
+     * set to 0 along any axis where it hit something. Invisible sprites
+     * are not moved, in the same way as Sprite.update().
+     *
+     * @param s       The sprite to move
+     * @param elapsed The time that has elapsed since the last move
+     * @return The contacts (GROUND, CEILING, WALL_LEFT, WALL_RIGHT) made during the move
+     */
+    public int move(Sprite s, long elapsed) {
+        if (!s.isVisible()) return 0;
+
+        float x = s.getX();
+        float y = s.getY();
+        float w = s.getWidth();
+        float h = s.getHeight();
+        float dx = s.getVelocityX() * elapsed;
+        float dy = s.getVelocityY() * elapsed;
+        int contacts = 0;
+
+        float nx = sweepX(x, y, w, h, dx);
+        if (nx != x + dx) {
+            contacts |= (dx > 0) ? WALL_RIGHT : WALL_LEFT;
+            s.setVelocityX(0);
+        }
+
+        float ny = sweepY(nx, y, w, h, dy);
+        if (ny != y + dy) {
+            contacts |= (dy > 0) ? GROUND : CEILING;
+            s.setVelocityY(0);
+        }
+
+        s.moveTo(nx, ny);
+        return contacts;
+    }
+
+    /**
+     * Moves every sprite in 'sprites' as move() does.
+     *
+     * @param sprites  The sprites to move
+     * @param elapsed  The time that has elapsed since the last move
+     * @param contacts If not null, receives the contacts for each sprite, in
+     *                 the same order as 'sprites'
+     */
+    public void moveAll(List<? extends Sprite> sprites, long elapsed, int[] contacts) {
+        for (int i = 0; i < sprites.size(); i++) {
+            int c = move(sprites.get(i), elapsed);
+            if (contacts != null) contacts[i] = c;
+        }
+    }
+
+    /**
+     * Moves every entity in 'store' by its velocity over 'elapsed'
+     * milliseconds, stopping at solid tiles in the same way as move().
+     * Each entity's contacts are stored in the entity store, where
+     * EntityStore.patrol() uses them to turn entities round at walls.
+     *
+     * @param store   The entities to move
+     * @param elapsed The time that has elapsed since the last move
+     */
+    public void moveAll(EntityStore store, long elapsed) {
+        moveRange(store, 0, store.size(), elapsed);
+    }
+
+    /**
+     * Moves the entities at indices 'from' (inclusive) to 'to' (exclusive)
+     * in 'store'. See moveAll(EntityStore, long).
+     */
+    void moveRange(EntityStore store, int from, int to, long elapsed) {
+        float[] xs = store.x, ys = store.y, dxs = store.dx, dys = store.dy;
+        for (int i = from; i < to; i++) {
+            float x = xs[i];
+            float y = ys[i];
+            float w = store.width[i];
+            float h = store.height[i];
+            float dx = dxs[i] * elapsed;
+            float dy = dys[i] * elapsed;
+            int contacts = 0;
+
+            float nx = sweepX(x, y, w, h, dx);
+            if (nx != x + dx) {
+                contacts |= (dx > 0) ? WALL_RIGHT : WALL_LEFT;
+                dxs[i] = 0;
+            }
+
+            float ny = sweepY(nx, y, w, h, dy);
+            if (ny != y + dy) {
+                contacts |= (dy > 0) ? GROUND : CEILING;
+                dys[i] = 0;
+            }
+
+            store.prevX[i] = x;
+            store.prevY[i] = y;
+            xs[i] = nx;
+            ys[i] = ny;
+            store.contacts[i] = contacts;
+        }
+    }
+
+    /**
+     * Sweeps a box at 'x,y' of size 'w,h' horizontally by 'dist' pixels.
+     *
+     * @return The x position the box can move to before hitting a solid tile
+     */
+    float sweepX(float x, float y, float w, float h, float dist) {
+        if (dist == 0) return x;
+
+        int tw = map.getTileWidth();
+        int th = map.getTileHeight();
+        int r0 = (int) Math.floor(y / th);
+        int r1 = (int) Math.ceil((y + h) / th) - 1;
+
+        if (dist > 0) {
+            // Check each column the right edge enters, nearest first
+            float edge = x + w;
+            int c0 = (int) Math.ceil(edge / tw);
+            int c1 = (int) Math.ceil((edge + dist) / tw) - 1;
+            for (int c = c0; c <= c1; c++) {
+                if (blocks(map.getTileFlags(c, r0, c, r1), false))
+                    return c * tw - w;
+            }
+        } else {
+            // Check each column the left edge enters, nearest first
+            int c0 = (int) Math.floor(x / tw) - 1;
+            int c1 = (int) Math.floor((x + dist) / tw);
+            for (int c = c0; c >= c1; c--) {
+                if (blocks(map.getTileFlags(c, r0, c, r1), false))
+                    return (c + 1) * tw;
+            }
+        }
+        return x + dist;
+    }
+
+    /**
+     * Sweeps a box at 'x,y' of size 'w,h' vertically by 'dist' pixels.
+     *
+     * @return The y position the box can move to before hitting a solid tile
+     */
+    float sweepY(float x, float y, float w, float h, float dist) {
+        if (dist == 0) return y;
+
+        int tw = map.getTileWidth();
+        int th = map.getTileHeight();
+        int c0 = (int) Math.floor(x / tw);
+        int c1 = (int) Math.ceil((x + w) / tw) - 1;
+
+        if (dist > 0) {
+            // Check each row the bottom edge enters, nearest first. These
+            // rows all start below the sprite, so one way tiles block too.
+            float edge = y + h;
+            int r0 = (int) Math.ceil(edge / th);
+            int r1 = (int) Math.ceil((edge + dist) / th) - 1;
+            for (int r = r0; r <= r1; r++) {
+                if (blocks(map.getTileFlags(c0, r, c1, r), true))
+                    return r * th - h;
+            }
+        } else {
+            // Check each row the top edge enters, nearest first
+            int r0 = (int) Math.floor(y / th) - 1;
+            int r1 = (int) Math.floor((y + dist) / th);
+            for (int r = r0; r >= r1; r--) {
+                if (blocks(map.getTileFlags(c0, r, c1, r), false))
+                    return (r + 1) * th;
+            }
+        }
+        return y + dist;
+    }
+
+    /**
+     * @param flags   The combined flags of the tiles being entered
+     * @param landing true if the sprite is moving down onto the tiles
+     * @return true if tiles with these flags stop the sprite
+     */
+    private static boolean blocks(int flags, boolean landing) {
+        if (landing) return (flags & (TileMap.SOLID | TileMap.ONE_WAY)) != 0;
+        return (flags & TileMap.SOLID) != 0 && (flags & TileMap.ONE_WAY) == 0;
+    }
+}
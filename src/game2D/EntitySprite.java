@@ -0,0 +1,125 @@
+package game2D;
+
+/**
+ * EntitySprite is a Sprite whose position, velocity and direction live in
+ * an EntityStore rather than in the sprite itself. It lets entities that are
+ * updated in bulk by the store be drawn and queried with the usual Sprite
+ * methods. The sprite still owns its animation, and keeps the entity's size
+ * in step with the current animation frame.
+ */
+public class EntitySprite extends Sprite {
+
+    private final EntityStore store;    // The store holding this sprite's state
+    private final int handle;            // The handle of this sprite's entity
+
+    /**
+     * Creates a sprite for the entity with the given handle.
+     *
+     * @param anim   The animation to use for the sprite
+     * @param store  The store holding the entity
+     * @param handle The handle of the entity
+     */
+    public EntitySprite(Animation anim, EntityStore store, int handle) {
+        super(anim);
+        this.store = store;
+        this.handle = handle;
+    }
+
+    /**
+     * @return The store holding this sprite's state
+     */
+    public EntityStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return The handle of this sprite's entity
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * Updates this Sprite's Animation. The entity itself is moved
+     * in bulk by the store or a CollisionWorld, not here.
+     *
+     * @param elapsedTime The time that has elapsed since the last call to update
+     */
+    public void update(long elapsedTime) {
+        updateAnimation(elapsedTime);
+    }
+
+    /**
+     * Updates this Sprite's Animation and copies the size of
+     * the current frame to the entity.
+     *
+     * @param elapsedTime The time that has elapsed since the last call to update
+     */
+    public void updateAnimation(long elapsedTime) {
+        super.updateAnimation(elapsedTime);
+        store.setSize(handle, getWidth(), getHeight());
+    }
+
+    public float getX() {
+        return store.getX(handle);
+    }
+
+    public float getY() {
+        return store.getY(handle);
+    }
+
+    public void setX(float x) {
+        store.setPosition(handle, x, getY());
+    }
+
+    public void setY(float y) {
+        store.setPosition(handle, getX(), y);
+    }
+
+    public void moveTo(float x, float y) {
+        store.moveTo(handle, x, y);
+    }
+
+    public void shiftX(float shift) {
+        store.setPosition(handle, getX() + shift, getY());
+    }
+
+    public void shiftY(float shift) {
+        store.setPosition(handle, getX(), getY() + shift);
+    }
+
+    public float getInterpolatedX(float alpha) {
+        return store.getInterpolatedX(handle, alpha);
+    }
+
+    public float getInterpolatedY(float alpha) {
+        return store.getInterpolatedY(handle, alpha);
+    }
+
+    public float getVelocityX() {
+        return store.getVelocityX(handle);
+    }
+
+    public float getVelocityY() {
+        return store.getVelocityY(handle);
+    }
+
+    public void setVelocityX(float dx) {
+        store.setVelocity(handle, dx, getVelocityY());
+    }
+
+    public void setVelocityY(float dy) {
+        store.setVelocity(handle, getVelocityX(), dy);
+    }
+
+    public boolean isDirection() {
+        return (store.getFlags(handle) & EntityStore.FACING_RIGHT) != 0;
+    }
+
+    public void setDirection(boolean direction) {
+        int flags = store.getFlags(handle);
+        if (direction) flags |= EntityStore.FACING_RIGHT;
+        else flags &= ~EntityStore.FACING_RIGHT;
+        store.setFlags(handle, flags);
+    }
+}
@@ -0,0 +1,342 @@
+package game2D;
+
+import java.util.Arrays;
+
+/**
+ * EntityStore holds the state of a large number of simple moving entities
+ * (e.g. enemies or projectiles) in parallel arrays of primitives, one array
+ * per field, rather than one object per entity. Updating every entity is then
+ * a tight loop over a few arrays, which is far kinder to the cache than
+ * chasing a reference to each Sprite, and lets the JIT vectorise the loops.
+ * <p>
+ * Entities are stored densely at indices 0 to size()-1 so bulk loops don't
+ * have to skip gaps. Removing an entity moves the last one into its place,
+ * so indices are not stable; each entity is instead identified by a handle
+ * returned from create(), which stays the same until it is removed. Use
+ * EntitySprite to draw an entity with the normal Sprite code.
+ */
+public class EntityStore {
+
+    // Entity flags, combined as a bitmask
+    public static final int FACING_RIGHT = 1;    // The entity is moving right (Sprite direction)
+    public static final int PATROL = 2;            // The entity walks back and forth (see patrol())
+
+    // Entity state by index
+    float[] x;                // Position (pixels)
+    float[] y;
+    float[] prevX;            // Position before the last move, for interpolation
+    float[] prevY;
+    float[] dx;                // Velocity (pixels per millisecond)
+    float[] dy;
+    float[] width;            // Size (pixels)
+    float[] height;
+    float[] patrolMin;        // The x range a patrolling entity walks between
+    float[] patrolMax;
+    float[] speed;            // The speed a patrolling entity walks at
+    int[] flags;            // FACING_RIGHT, PATROL
+    int[] contacts;            // CollisionWorld contacts from the last move
+
+    private int[] handles;            // The handle of the entity at each index
+    private int[] indices;            // The index of the entity with each handle, -1 if free
+    private int[] freeHandles;        // Handles that can be reused
+    private int freeCount = 0;
+    private int count = 0;            // The number of entities
+
+    /**
+     * Creates an empty entity store.
+     */
+    public EntityStore() {
+        this(64);
+    }
+
+    /**
+     * Creates an empty entity store with room for 'capacity' entities
+     * before it needs to grow.
+     *
+     * @param capacity The number of entities to make room for
+     */
+    public EntityStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        dx = new float[capacity];
+        dy = new float[capacity];
+        width = new float[capacity];
+        height = new float[capacity];
+        patrolMin = new float[capacity];
+        patrolMax = new float[capacity];
+        speed = new float[capacity];
+        flags = new int[capacity];
+        contacts = new int[capacity];
+        handles = new int[capacity];
+        indices = new int[capacity];
+        freeHandles = new int[capacity];
+        Arrays.fill(indices, -1);
+    }
+
+    /**
+     * @return The number of entities in the store
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Creates a new, stationary entity.
+     *
+     * @param px The x position in pixels
+     * @param py The y position in pixels
+     * @param w  The width in pixels
+     * @param h  The height in pixels
+     * @return The handle of the new entity
+     */
+    public int create(float px, float py, float w, float h) {
+        if (count == x.length) grow();
+
+        int handle = (freeCount > 0) ? freeHandles[--freeCount] : count;
+        int i = count++;
+        x[i] = prevX[i] = px;
+        y[i] = prevY[i] = py;
+        dx[i] = dy[i] = 0;
+        width[i] = w;
+        height[i] = h;
+        patrolMin[i] = patrolMax[i] = speed[i] = 0;
+        flags[i] = 0;
+        contacts[i] = 0;
+        handles[i] = handle;
+        indices[handle] = i;
+        return handle;
+    }
+
+    /**
+     * Removes the entity with the given handle. The handle may be reused
+     * by a later call to create().
+     *
+     * @param handle The handle of the entity to remove
+     */
+    public void remove(int handle) {
+        int i = index(handle);
+        int last = --count;
+
+        // Move the last entity into the gap
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            prevX[i] = prevX[last];
+            prevY[i] = prevY[last];
+            dx[i] = dx[last];
+            dy[i] = dy[last];
+            width[i] = width[last];
+            height[i] = height[last];
+            patrolMin[i] = patrolMin[last];
+            patrolMax[i] = patrolMax[last];
+            speed[i] = speed[last];
+            flags[i] = flags[last];
+            contacts[i] = contacts[last];
+            handles[i] = handles[last];
+            indices[handles[i]] = i;
+        }
+
+        indices[handle] = -1;
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Removes every entity from the store.
+     */
+    public void clear() {
+        while (count > 0) remove(handles[count - 1]);
+    }
+
+    /**
+     * Gets the current index of an entity, for use with the bulk arrays.
+     * Note that indices change when entities are removed.
+     *
+     * @param handle The handle of the entity
+     * @return The entity's index
+     */
+    public int index(int handle) {
+        int i = (handle >= 0 && handle < indices.length) ? indices[handle] : -1;
+        if (i < 0) throw new IllegalArgumentException("No entity with handle " + handle);
+        return i;
+    }
+
+    /**
+     * @param i An entity index, 0 to size()-1
+     * @return The handle of the entity at index 'i'
+     */
+    public int handle(int i) {
+        return handles[i];
+    }
+
+    /**
+     * Makes the entity walk back and forth between 'min' and 'max'
+     * at 'walkSpeed' pixels per millisecond when patrol() is called.
+     *
+     * @param handle    The handle of the entity
+     * @param min       The left edge of the patrol area in pixels
+     * @param max       The right edge of the patrol area in pixels
+     * @param walkSpeed The speed to walk at
+     */
+    public void setPatrol(int handle, float min, float max, float walkSpeed) {
+        int i = index(handle);
+        patrolMin[i] = min;
+        patrolMax[i] = max;
+        speed[i] = walkSpeed;
+        flags[i] |= PATROL;
+    }
+
+    /**
+     * Sets the horizontal velocity of every patrolling entity. An entity
+     * turns round when it passes the edge of its patrol area or when its
+     * last move ran into a wall.
+     */
+    public void patrol() {
+        patrolRange(0, count);
+    }
+
+    /**
+     * Updates the patrolling entities at indices 'from' (inclusive) to
+     * 'to' (exclusive). See patrol().
+     */
+    void patrolRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int f = flags[i];
+            if ((f & PATROL) == 0) continue;
+
+            boolean right = (f & FACING_RIGHT) != 0;
+            boolean hitWall = (contacts[i] & (right ? CollisionWorld.WALL_RIGHT : CollisionWorld.WALL_LEFT)) != 0;
+            if (hitWall || (right && x[i] > patrolMax[i]) || (!right && x[i] < patrolMin[i])) {
+                f ^= FACING_RIGHT;
+                flags[i] = f;
+            }
+            dx[i] = ((f & FACING_RIGHT) != 0) ? speed[i] : -speed[i];
+        }
+    }
+
+    /**
+     * Moves every entity by its velocity over 'elapsed' milliseconds,
+     * ignoring the tile map. Use CollisionWorld.moveAll() to move entities
+     * that should collide with the map.
+     *
+     * @param elapsed The time that has elapsed since the last move
+     */
+    public void integrate(long elapsed) {
+        integrateRange(0, count, elapsed);
+    }
+
+    /**
+     * Moves the entities at indices 'from' (inclusive) to 'to' (exclusive).
+     * See integrate().
+     */
+    void integrateRange(int from, int to, long elapsed) {
+        System.arraycopy(x, from, prevX, from, to - from);
+        System.arraycopy(y, from, prevY, from, to - from);
+        for (int i = from; i < to; i++) {
+            x[i] += dx[i] * elapsed;
+            y[i] += dy[i] * elapsed;
+        }
+    }
+
+    public float getX(int handle) {
+        return x[index(handle)];
+    }
+
+    public float getY(int handle) {
+        return y[index(handle)];
+    }
+
+    /**
+     * Sets the position of an entity, without interpolating from
+     * its old position.
+     */
+    public void setPosition(int handle, float px, float py) {
+        int i = index(handle);
+        x[i] = prevX[i] = px;
+        y[i] = prevY[i] = py;
+    }
+
+    /**
+     * Moves an entity as part of an update, keeping its previous
+     * position for interpolation.
+     */
+    public void moveTo(int handle, float px, float py) {
+        int i = index(handle);
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+        x[i] = px;
+        y[i] = py;
+    }
+
+    public float getInterpolatedX(int handle, float alpha) {
+        int i = index(handle);
+        return prevX[i] + (x[i] - prevX[i]) * alpha;
+    }
+
+    public float getInterpolatedY(int handle, float alpha) {
+        int i = index(handle);
+        return prevY[i] + (y[i] - prevY[i]) * alpha;
+    }
+
+    public float getVelocityX(int handle) {
+        return dx[index(handle)];
+    }
+
+    public float getVelocityY(int handle) {
+        return dy[index(handle)];
+    }
+
+    public void setVelocity(int handle, float vx, float vy) {
+        int i = index(handle);
+        dx[i] = vx;
+        dy[i] = vy;
+    }
+
+    public void setSize(int handle, float w, float h) {
+        int i = index(handle);
+        width[i] = w;
+        height[i] = h;
+    }
+
+    public int getFlags(int handle) {
+        return flags[index(handle)];
+    }
+
+    public void setFlags(int handle, int f) {
+        flags[index(handle)] = f;
+    }
+
+    /**
+     * @return The CollisionWorld contacts made by the entity's last move
+     */
+    public int getContacts(int handle) {
+        return contacts[index(handle)];
+    }
+
+    /**
+     * Doubles the space available for entities.
+     */
+    private void grow() {
+        int size = x.length * 2;
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        prevX = Arrays.copyOf(prevX, size);
+        prevY = Arrays.copyOf(prevY, size);
+        dx = Arrays.copyOf(dx, size);
+        dy = Arrays.copyOf(dy, size);
+        width = Arrays.copyOf(width, size);
+        height = Arrays.copyOf(height, size);
+        patrolMin = Arrays.copyOf(patrolMin, size);
+        patrolMax = Arrays.copyOf(patrolMax, size);
+        speed = Arrays.copyOf(speed, size);
+        flags = Arrays.copyOf(flags, size);
+        contacts = Arrays.copyOf(contacts, size);
+        handles = Arrays.copyOf(handles, size);
+        freeHandles = Arrays.copyOf(freeHandles, size);
+        int old = indices.length;
+        indices = Arrays.copyOf(indices, size);
+        Arrays.fill(indices, old, size, -1);
+    }
+}
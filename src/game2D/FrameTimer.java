@@ -0,0 +1,276 @@
+package game2D;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * FrameTimer records how long each phase of every frame takes, so that
+ * occasional slow frames (stutters) show up rather than disappearing into
+ * an average frame rate.
+ * <p>
+ * The game loop calls beginFrame() at the start of each frame, mark() at the
+ * end of each phase, and endFrame() at the end. The most recent frames are
+ * kept in a ring buffer (see getRecent() and writeCsv()) and every frame is
+ * counted in a histogram per phase, from which percentiles such as the 99th
+ * can be read. The histogram buckets are a power of two wide up to 32ns
+ * and then grow so that every bucket is within about 6% of its value, in
+ * the same way as HdrHistogram, so a few kilobytes cover nanoseconds to
+ * minutes.
+ * <p>
+ * Recording does not allocate or lock. All the methods are meant to be
+ * called from the game loop thread.
+ */
+public class FrameTimer {
+
+    // The phases of a frame
+    public static final int UPDATE = 0;        // Updating the game world
+    public static final int DRAW = 1;        // Drawing the frame
+    public static final int PRESENT = 2;    // Showing the frame on screen
+    public static final int SLEEP = 3;        // Waiting before the next frame
+    public static final int FRAME = 4;        // The whole frame
+    public static final int PHASES = 5;
+
+    private static final String[] NAMES = {"update", "draw", "present", "sleep", "frame"};
+
+    public static final int DEFAULT_CAPACITY = 1024;    // Frames kept in the ring buffer by default
+
+    private static final int SUB_BITS = 5;                        // Precision of the histogram buckets
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF;
+
+    private final long[] ring;            // Recent frames, PHASES values per frame
+    private long frameCount = 0;        // Frames recorded since the last reset
+
+    private final long[][] histogram = new long[PHASES][BUCKETS];
+    private final long[] max = new long[PHASES];
+
+    private final long[] current = new long[PHASES];    // The frame being recorded
+    private long frameStart;
+    private long lastMark;
+
+    /**
+     * Creates a frame timer that keeps the last DEFAULT_CAPACITY frames.
+     */
+    public FrameTimer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a frame timer that keeps the last 'capacity' frames.
+     *
+     * @param capacity The number of recent frames to keep
+     */
+    public FrameTimer(int capacity) {
+        ring = new long[Math.max(1, capacity) * PHASES];
+    }
+
+    /**
+     * Starts timing a new frame.
+     */
+    public void beginFrame() {
+        Arrays.fill(current, 0);
+        frameStart = System.nanoTime();
+        lastMark = frameStart;
+    }
+
+    /**
+     * Ends a phase of the current frame. The time since the last call to
+     * mark() (or beginFrame()) is added to the given phase.
+     *
+     * @param phase The phase that has just finished, e.g. UPDATE
+     */
+    public void mark(int phase) {
+        long now = System.nanoTime();
+        current[phase] += now - lastMark;
+        lastMark = now;
+    }
+
+    /**
+     * Finishes timing the current frame and records it.
+     */
+    public void endFrame() {
+        current[FRAME] = System.nanoTime() - frameStart;
+
+        int base = (int) (frameCount % (ring.length / PHASES)) * PHASES;
+        for (int p = 0; p < PHASES; p++) {
+            long t = current[p];
+            ring[base + p] = t;
+            histogram[p][bucket(t)]++;
+            if (t > max[p]) max[p] = t;
+        }
+        frameCount++;
+    }
+
+    /**
+     * @return The number of frames recorded since the timer was created or reset
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets a percentile of the time taken by a phase, over every frame
+     * since the timer was created or reset.
+     *
+     * @param phase      The phase, e.g. FRAME
+     * @param percentile The percentile, from 0 to 100, e.g. 99
+     * @return The time in nanoseconds that the given percentage of frames
+     * took no longer than, to within about 6%
+     */
+    public long getPercentile(int phase, double percentile) {
+        if (frameCount == 0) return 0;
+        long target = (long) Math.ceil(frameCount * Math.min(percentile, 100) / 100.0);
+        target = Math.max(target, 1);
+
+        long seen = 0;
+        long[] h = histogram[phase];
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += h[i];
+            if (seen >= target) return Math.min(bucketTop(i), max[phase]);
+        }
+        return max[phase];
+    }
+
+    /**
+     * @param phase The phase, e.g. FRAME
+     * @return The longest time the phase has taken in nanoseconds
+     */
+    public long getMax(int phase) {
+        return max[phase];
+    }
+
+    /**
+     * Gets the time a phase took in a recent frame.
+     *
+     * @param ago   How many frames ago, 0 for the last frame recorded
+     * @param phase The phase, e.g. FRAME
+     * @return The time in nanoseconds, or 0 if that frame is no longer kept
+     */
+    public long getRecent(int ago, int phase) {
+        int capacity = ring.length / PHASES;
+        if (ago < 0 || ago >= capacity || ago >= frameCount) return 0;
+        long frame = frameCount - 1 - ago;
+        return ring[(int) (frame % capacity) * PHASES + phase];
+    }
+
+    /**
+     * @param phase The phase, e.g. FRAME
+     * @return The name of the phase, as used in the CSV file
+     */
+    public static String getName(int phase) {
+        return NAMES[phase];
+    }
+
+    /**
+     * Forgets every frame recorded so far.
+     */
+    public void reset() {
+        for (long[] h : histogram) Arrays.fill(h, 0);
+        Arrays.fill(max, 0);
+        frameCount = 0;
+    }
+
+    /**
+     * Draws a summary of the frame times at 'x,y': the 50th and 99th
+     * percentiles and the maximum for each phase, and a graph of the
+     * frame times of the recent frames.
+     *
+     * @param g The graphics object to draw to
+     * @param x The left of the overlay
+     * @param y The top of the overlay
+     */
+    public void drawOverlay(Graphics2D g, int x, int y) {
+        Font oldFont = g.getFont();
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, oldFont.getSize()));
+        int lineHeight = g.getFontMetrics().getHeight();
+        int graphHeight = 40;
+        int graphWidth = Math.min(200, ring.length / PHASES);
+
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(x, y, 240, lineHeight * (PHASES + 1) + graphHeight + 12);
+
+        g.setColor(Color.white);
+        int ty = y + lineHeight;
+        g.drawString("ms           p50     p99     max", x + 4, ty);
+        for (int p = 0; p < PHASES; p++) {
+            ty += lineHeight;
+            g.drawString(String.format("%-8s %7.2f %7.2f %7.2f", NAMES[p],
+                    getPercentile(p, 50) / 1e6, getPercentile(p, 99) / 1e6, max[p] / 1e6), x + 4, ty);
+        }
+
+        // One bar per recent frame, scaled so that 33ms fills the graph,
+        // with a line at 16.7ms (60 frames per second)
+        int gy = ty + 8 + graphHeight;
+        for (int i = 0; i < graphWidth; i++) {
+            long t = getRecent(graphWidth - 1 - i, FRAME);
+            int h = (int) Math.min(graphHeight, t * graphHeight / 33333333L);
+            g.setColor(t > 16666667L ? Color.red : Color.green);
+            g.drawLine(x + 4 + i, gy, x + 4 + i, gy - h);
+        }
+        g.setColor(Color.yellow);
+        g.drawLine(x + 4, gy - graphHeight / 2, x + 4 + graphWidth, gy - graphHeight / 2);
+        g.setFont(oldFont);
+    }
+
+    /**
+     * Writes the recent frames to a CSV file, one row per frame with the
+     * time of each phase in microseconds, followed by the percentiles of
+     * every frame recorded.
+     *
+     * @param path The file to write
+     * @return true if the file was written
+     */
+    public boolean writeCsv(String path) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.print("frame");
+            for (int p = 0; p < PHASES; p++) out.print("," + NAMES[p] + "_us");
+            out.println();
+
+            int kept = (int) Math.min(frameCount, ring.length / PHASES);
+            for (int ago = kept - 1; ago >= 0; ago--) {
+                out.print(frameCount - 1 - ago);
+                for (int p = 0; p < PHASES; p++) out.print("," + getRecent(ago, p) / 1000.0);
+                out.println();
+            }
+
+            out.println();
+            out.print("percentile");
+            for (int p = 0; p < PHASES; p++) out.print("," + NAMES[p] + "_us");
+            out.println();
+            double[] percentiles = {50, 90, 99, 99.9, 100};
+            for (double pc : percentiles) {
+                out.print((pc == 100) ? "max" : "p" + pc);
+                for (int p = 0; p < PHASES; p++)
+                    out.print("," + ((pc == 100) ? max[p] : getPercentile(p, pc)) / 1000.0);
+                out.println();
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to write frame times to '" + path + "':" + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The histogram bucket that a time of 't' nanoseconds is counted in
+     */
+    private static int bucket(long t) {
+        if (t < (1 << SUB_BITS)) return (int) Math.max(t, 0);
+        int shift = 63 - Long.numberOfLeadingZeros(t) - (SUB_BITS - 1);
+        return shift * HALF + (int) (t >>> shift);
+    }
+
+    /**
+     * @return The largest time counted in histogram bucket 'i'
+     */
+    private static long bucketTop(int i) {
+        if (i < (1 << SUB_BITS)) return i;
+        int shift = i / HALF - 1;
+        long sub = i - shift * HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -3,6 +3,7 @@ package game2D;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 
 import javax.swing.*;
@@ -13,10 +14,15 @@ import javax.swing.*;
  * <p>
  * Core Game class that implements default game loop. Subclasses should
  * implement the draw() method and override the update method.
+ * <p>
+ * The game can also be run without any window via runHeadless(), which
+ * is useful for measuring simulation speed on machines with no display.
+ * <p>
+ * The time each part of every frame takes is recorded by a FrameTimer
+ * (see getFrameTimer()), which can be shown on screen with
+ * setTimingOverlay() and written to a file on exit with setTimingLog().
  */
-public abstract class GameCore extends JFrame implements KeyListener {
-
-    private static final long serialVersionUID = 1L;
+public abstract class GameCore implements KeyListener {
 
     protected static final int FONT_SIZE = 12;
 
@@ -25,14 +31,33 @@ public abstract class GameCore extends JFrame implements KeyListener {
 
     private boolean isRunning;            // true if the game loop should continue
     private boolean fullScreen;            // true if the game is in full screen mode
-    private long startTime;                // The time the game started
-    private long currTime;                // The current time
-    private long elapsedTime;            // Elapsed time since previous check
+    private boolean headless;            // true if the game is running without a window
+    private int headlessWidth;            // The screen size to report when headless
+    private int headlessHeight;
+    private long startTime;                // The time the game started (nanoseconds)
+    private long currTime;                // The current time (nanoseconds)
+    private long elapsedTime;            // Elapsed time since previous check (milliseconds)
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private boolean fixedStep;            // true if update() should be called at a fixed rate
+    private long stepNanos;                // The fixed simulation step in nanoseconds
+    private long stepCarry;                // Simulated time not yet passed to update() as whole milliseconds (nanoseconds)
+    private int maxCatchUp;                // The most updates to run for a single drawn frame
+    private long accumulator;            // Time not yet consumed by fixed updates (nanoseconds)
+    private float interpolation;        // How far we are between the last and next fixed update
 
     private long frames;                // Used to calculate frames per second (FPS)
+    private JFrame frame;                // Our window when in windowed mode
     private Window win;                    // Window object used to handle the display
 
-    private BufferedImage buffer = null;    // buffer is used as a buffered image for drawing offscreen
+    private AssetManager assets = new AssetManager();    // Loads and caches our images
+
+    private FrameTimer timer = new FrameTimer();    // Records how long each frame takes
+    private boolean timingOverlay = false;            // true to draw the frame times over the game
+    private String timingLog = null;                // The file to write the frame times to on exit
+
+    private BufferedImage buffer = null;    // buffer is used as a buffered image for drawing headless
     private Graphics2D bg = null;            // The virtual Graphics2D device associated with the above image
 
 
@@ -46,6 +71,7 @@ public abstract class GameCore extends JFrame implements KeyListener {
         frames = 1;
         startTime = 1;
         currTime = 1;
+        interpolation = 1.0f;
     }
 
 
@@ -91,12 +117,18 @@ public abstract class GameCore extends JFrame implements KeyListener {
             displayMode = new DisplayMode(xres, yres, 32, 0);
             win = screen.getFullScreenWindow();
         } else {
-            win = this;
+            frame = new JFrame();
+            frame.setIgnoreRepaint(true);    // We draw the window ourselves
+            win = frame;
             win.setSize(xres, yres);
         }
 
         setVisible(true);
 
+        // Full screen mode already has a buffer strategy from ScreenManager,
+        // windowed mode needs one creating once the window is showing
+        if (!fullScreen) frame.createBufferStrategy(2);
+
         win.addKeyListener(this);
         win.setFont(new Font("Dialog", Font.PLAIN, FONT_SIZE));
     }
@@ -107,8 +139,9 @@ public abstract class GameCore extends JFrame implements KeyListener {
      * @param true to show the game window, false to hide
      */
     public void setVisible(boolean show) {
+        if (headless) return;
         if (!fullScreen) {
-            super.setVisible(show);
+            frame.setVisible(show);
             return;
         }
 
@@ -122,13 +155,129 @@ public abstract class GameCore extends JFrame implements KeyListener {
     }
 
     /**
-     * Loads an image with the given 'fileName'
+     * Switches the game loop into fixed timestep mode. Instead of passing
+     * whatever time elapsed since the previous frame to update(), the loop
+     * accumulates real time and calls update() with a constant step as many
+     * times as needed, then draws once. The step is kept in nanoseconds, and
+     * since update() takes whole milliseconds the remainder is carried over
+     * to the next step, so 120 ticks per second passes 8, 8, 9, 8, 8, 9...
+     * and simulated time matches real time.
+     * <p>
+     * If the game falls behind, at most 'maxCatchUp' updates are run before
+     * the next frame is drawn and any remaining backlog is dropped, so a long
+     * stall slows the game down briefly rather than freezing it.
+     *
+     * @param ticksPerSecond The number of updates to run per second
+     * @param maxCatchUp     The maximum number of updates to run per drawn frame
+     */
+    public void setFixedTimestep(int ticksPerSecond, int maxCatchUp) {
+        if (ticksPerSecond <= 0 || maxCatchUp <= 0)
+            throw new IllegalArgumentException("Tick rate and catch up limit must be positive");
+
+        stepNanos = Math.max(NANOS_PER_MILLI, Math.round(1e9 / ticksPerSecond));
+        stepCarry = 0;
+        this.maxCatchUp = maxCatchUp;
+        fixedStep = true;
+    }
+
+    /**
+     * Switches the game loop back to passing the measured elapsed time
+     * to update() once per frame (the default).
+     */
+    public void setVariableTimestep() {
+        fixedStep = false;
+        interpolation = 1.0f;
+    }
+
+    /**
+     * @return true if the game loop is running in fixed timestep mode
+     */
+    public boolean isFixedTimestep() {
+        return fixedStep;
+    }
+
+    /**
+     * @return The fixed simulation step in nanoseconds, 0 if not in fixed timestep mode
+     */
+    public long getTimestepNanos() {
+        return fixedStep ? stepNanos : 0;
+    }
+
+    /**
+     * Gets the time to pass to update() for the next fixed step, in whole
+     * milliseconds, carrying the part of a millisecond left over on to the
+     * step after.
+     */
+    private long nextStepMillis() {
+        stepCarry += stepNanos;
+        long millis = stepCarry / NANOS_PER_MILLI;
+        stepCarry -= millis * NANOS_PER_MILLI;
+        return millis;
+    }
+
+    /**
+     * Gets how far the current frame lies between the last fixed update and
+     * the next one, in the range 0 to 1. draw() can use this to interpolate
+     * between a sprite's previous and current position so that motion stays
+     * smooth when drawing faster than the simulation runs. Always 1 in
+     * variable timestep mode.
+     *
+     * @return The interpolation factor for the frame being drawn
+     */
+    public float getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Loads an image with the given 'fileName'. Images are cached by the
+     * game's AssetManager, so loading the same file again is cheap and
+     * returns the same Image object.
      *
      * @param fileName The file path to the image file that should be loaded
      * @return A reference to the Image object that was loaded
      */
     public Image loadImage(String fileName) {
-        return new ImageIcon(fileName).getImage();
+        return assets.getImage(fileName);
+    }
+
+    /**
+     * @return The AssetManager used to load and cache the game's images
+     */
+    public AssetManager getAssets() {
+        return assets;
+    }
+
+    /**
+     * @return The FrameTimer recording how long each phase of each frame takes
+     */
+    public FrameTimer getFrameTimer() {
+        return timer;
+    }
+
+    /**
+     * Turns drawing the frame times over the top of the game on or off.
+     *
+     * @param show True to draw the frame times
+     */
+    public void setTimingOverlay(boolean show) {
+        timingOverlay = show;
+    }
+
+    /**
+     * @return true if the frame times are drawn over the top of the game
+     */
+    public boolean isTimingOverlay() {
+        return timingOverlay;
+    }
+
+    /**
+     * Sets a CSV file to write the recent frame times and their
+     * percentiles to when the game loop ends.
+     *
+     * @param fileName The file to write, or null to not write one
+     */
+    public void setTimingLog(String fileName) {
+        timingLog = fileName;
     }
 
     /**
@@ -136,85 +285,202 @@ public abstract class GameCore extends JFrame implements KeyListener {
      * <p>
      * This method will call your update() method followed by your draw()
      * method to display the updated game state. It implements double buffering
-     * for both full screen and windowed mode.
+     * for both full screen and windowed mode using the window's BufferStrategy,
+     * which page flips (or blits from video memory) rather than copying a
+     * software image to the screen every frame. See setFixedTimestep() for how
+     * update() is called in fixed timestep mode. The time spent updating,
+     * drawing, showing the frame and sleeping is recorded by the FrameTimer.
      */
     public void gameLoop() {
-        startTime = System.currentTimeMillis();
+        startTime = System.nanoTime();
         currTime = startTime;
         frames = 1;        // Keep a note of frames for performance measure
+        accumulator = 0;
+        stepCarry = 0;
+        interpolation = 1.0f;
+        timer.reset();
 
-        Graphics2D g;
         isRunning = true;
 
-        // Create our own buffer
-        buffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        bg = (Graphics2D) buffer.createGraphics();
-        bg.setClip(0, 0, getWidth(), getHeight());
-
         while (isRunning) {
-            elapsedTime = System.currentTimeMillis() - currTime;
-            currTime += elapsedTime;
-
-            // Call the overridden update method
-            update(elapsedTime);
-
-            // Get the current graphics device
-            g = (Graphics2D) win.getGraphics();
-
-
-            if (g != null) {
-                if (fullScreen) {
-                    // Set the clipping (drawable) region to be the screen bounds
-                    g.setClip(0, 0, getWidth(), getHeight());
-                    draw(g);
-                    screen.update();
-                    g.dispose();
-                } else {
-                    draw(bg);
-                    g.drawImage(buffer, null, 0, 0);
+            timer.beginFrame();
+            if (fixedStep) {
+                long now = System.nanoTime();
+                accumulator += now - currTime;
+                currTime = now;
+
+                // Run as many fixed steps as the elapsed time allows
+                int ticks = 0;
+                while (accumulator >= stepNanos && ticks < maxCatchUp) {
+                    elapsedTime = nextStepMillis();
+                    update(elapsedTime);
+                    accumulator -= stepNanos;
+                    ticks++;
                 }
+                // Drop whatever we could not catch up on
+                if (accumulator >= stepNanos) accumulator %= stepNanos;
+                interpolation = (float) accumulator / stepNanos;
             } else {
+                // Only consume whole milliseconds so no time is lost to rounding
+                elapsedTime = (System.nanoTime() - currTime) / NANOS_PER_MILLI;
+                currTime += elapsedTime * NANOS_PER_MILLI;
+
+                // Call the overridden update method
+                update(elapsedTime);
+            }
+            timer.mark(FrameTimer.UPDATE);
+
+            if (!drawFrame()) {
                 System.err.println("Null reference for graphics");
                 break;
             }
 
             frames++;
 
-            // take a nap
+            // take a nap, a short one if we are drawing between fixed updates
             try {
-                Thread.sleep(10);
+                Thread.sleep(fixedStep ? 1 : 10);
             } catch (InterruptedException ex) {
             }
+            timer.mark(FrameTimer.SLEEP);
+            timer.endFrame();
         }
+        if (timingLog != null) timer.writeCsv(timingLog);
         System.exit(0);
     }
 
+    /**
+     * Draws a single frame into the back buffer of the window's BufferStrategy
+     * and shows it. The buffers live in video memory when possible and may be
+     * lost (e.g. when the display mode changes), in which case the frame is
+     * drawn again until it gets to the screen intact.
+     *
+     * @return false if the window has no buffer strategy to draw with
+     */
+    private boolean drawFrame() {
+        BufferStrategy strategy = win.getBufferStrategy();
+        if (strategy == null) return false;
+
+        do {
+            do {
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                // Set the clipping (drawable) region to be the screen bounds
+                g.setClip(0, 0, getWidth(), getHeight());
+                draw(g);
+                if (timingOverlay) timer.drawOverlay(g, 10, getHeight() - 150);
+                g.dispose();
+                timer.mark(FrameTimer.DRAW);
+            } while (strategy.contentsRestored());
+
+            strategy.show();
+            timer.mark(FrameTimer.PRESENT);
+        } while (strategy.contentsLost());
+
+        // Sync the display on some systems.
+        // (on Linux, this fixes event queue problems)
+        Toolkit.getDefaultToolkit().sync();
+        timer.mark(FrameTimer.PRESENT);
+        return true;
+    }
+
+    /**
+     * Runs the game for a given number of updates without creating any
+     * window, as fast as possible. Each update is passed the fixed timestep
+     * if one has been set with setFixedTimestep(), or 10ms otherwise. If
+     * 'render' is true, draw() is also called after every update, drawing
+     * into an offscreen image of the given size.
+     * <p>
+     * Unlike gameLoop(), this method returns when it is done (or when
+     * stop() is called) rather than exiting, so the caller can inspect
+     * the state of the game afterwards. The time taken by each update and
+     * draw is recorded by the FrameTimer as usual.
+     *
+     * @param xres   Width in pixels of the offscreen screen
+     * @param yres   Height in pixels of the offscreen screen
+     * @param ticks  The number of updates to run
+     * @param render True to draw after every update
+     * @return The number of updates run per second
+     */
+    public float runHeadless(int xres, int yres, long ticks, boolean render) {
+        headless = true;
+        headlessWidth = xres;
+        headlessHeight = yres;
+
+        stepCarry = 0;
+        interpolation = 1.0f;
+
+        if (render) {
+            buffer = new BufferedImage(xres, yres, BufferedImage.TYPE_INT_RGB);
+            bg = buffer.createGraphics();
+            bg.setClip(0, 0, xres, yres);
+        }
+
+        startTime = System.nanoTime();
+        frames = 0;
+        timer.reset();
+        isRunning = true;
+
+        while (isRunning && frames < ticks) {
+            timer.beginFrame();
+            elapsedTime = fixedStep ? nextStepMillis() : 10;
+            update(elapsedTime);
+            timer.mark(FrameTimer.UPDATE);
+            if (render) draw(bg);
+            timer.mark(FrameTimer.DRAW);
+            timer.endFrame();
+            frames++;
+        }
+        currTime = System.nanoTime();
+        isRunning = false;
+        if (timingLog != null) timer.writeCsv(timingLog);
+
+        if (bg != null) {
+            bg.dispose();
+            bg = null;
+        }
+
+        if (currTime - startTime <= 0) return 0.0f;
+        return frames / ((currTime - startTime) / 1000000000.0f);
+    }
+
+    /**
+     * @return true if the game is running without a window
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
     /**
      * @return The screen width in pixels
      */
     public int getWidth() {
-        if (fullScreen)
+        if (headless)
+            return headlessWidth;
+        else if (fullScreen)
             return screen.getWidth();
         else
-            return super.getWidth();
+            return frame.getWidth();
     }
 
     /**
      * @return The screen height in pixels
      */
     public int getHeight() {
-        if (fullScreen)
+        if (headless)
+            return headlessHeight;
+        else if (fullScreen)
             return screen.getHeight();
         else
-            return super.getHeight();
+            return frame.getHeight();
     }
 
     /**
-     * @return The current frames per second (FPS)
+     * @return The average frames per second (FPS) since the game loop
+     * started. See getFrameTimer() for how long individual frames take.
      */
     public float getFPS() {
         if (currTime - startTime <= 0) return 0.0f;
-        return (float) frames / ((currTime - startTime) / 1000.0f);
+        return (float) frames / ((currTime - startTime) / 1000000000.0f);
     }
 
     /**
@@ -1,7 +1,6 @@
 package game2D;
 
 import java.awt.*;
-import javax.swing.ImageIcon;
 
 /**
  * Simple abstract class used for testing. Subclasses should
@@ -19,6 +18,8 @@ public abstract class GameCoreFS {
 
     private long frames;
 
+    private AssetManager assets = new AssetManager();    // Loads and caches images
+
 
     /**
      * Signals the game loop that it's time to quit
@@ -61,7 +62,7 @@ public abstract class GameCoreFS {
     }
 
     public Image loadImage(String fileName) {
-        return new ImageIcon(fileName).getImage();
+        return assets.getImage(fileName);
     }
 
     /**
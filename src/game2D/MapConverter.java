@@ -0,0 +1,59 @@
+package game2D;
+
+/**
+ * MapConverter compiles text tile maps into the binary format that
+ * TileMap loads from .tmb files. Each map given on the command line is
+ * written next to the original with its extension changed to .tmb, e.g.
+ * <p>
+ * java game2D.MapConverter maps/map1.txt maps/map2.txt
+ * <p>
+ * Passing -chunked [size] first writes maps whose grid is stored in chunks
+ * of size x size tiles (TileMap.DEFAULT_STREAM_CHUNK_TILES by default), which
+ * TileMap streams from disk rather than loading.
+ */
+public class MapConverter {
+
+    /**
+     * Converts each text map named in 'args' to a binary map.
+     *
+     * @param args [-chunked [size]] followed by the paths to the text maps
+     */
+    public static void main(String[] args) {
+        int first = 0;
+        int chunkTiles = 0;    // 0 to write the whole grid
+        if (args.length > 0 && args[0].equals("-chunked")) {
+            first = 1;
+            chunkTiles = TileMap.DEFAULT_STREAM_CHUNK_TILES;
+            if (args.length > 1 && args[1].matches("[0-9]+")) {
+                chunkTiles = Integer.parseInt(args[1]);
+                first = 2;
+            }
+        }
+
+        if (first >= args.length) {
+            System.err.println("Usage: java game2D.MapConverter [-chunked [size]] map.txt [map.txt ...]");
+            System.exit(1);
+        }
+
+        boolean ok = true;
+        for (int i = first; i < args.length; i++) {
+            String path = args[i];
+            int slash = path.lastIndexOf('/');
+            String folder = (slash >= 0) ? path.substring(0, slash) : ".";
+            String file = path.substring(slash + 1);
+            int dot = file.lastIndexOf('.');
+            String out = folder + "/" + ((dot > 0) ? file.substring(0, dot) : file) + TileMap.BINARY_EXTENSION;
+
+            TileMap map = new TileMap();
+            boolean saved = map.loadMap(folder, file)
+                    && ((chunkTiles > 0) ? map.saveChunkedMap(out, chunkTiles) : map.saveBinaryMap(out));
+            if (saved) {
+                System.out.println("Wrote " + out);
+            } else {
+                System.err.println("Failed to convert '" + path + "'");
+                ok = false;
+            }
+        }
+        if (!ok) System.exit(1);
+    }
+}
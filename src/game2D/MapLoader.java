@@ -0,0 +1,104 @@
+package game2D;
+
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * MapLoader loads tile maps on a background thread, so that the next level
+ * can be read while the current one is being played. Each map is loaded
+ * into a new TileMap, separate from the one being drawn, which the game
+ * swaps in between updates once it is ready.
+ * <p>
+ * Call prefetch() as early as possible, then poll() each update until it
+ * returns the map. take() waits for the map instead, for when the game
+ * has nothing else to do.
+ */
+public class MapLoader {
+
+    private final AssetManager assets;    // Loads the tile images, shared with the game
+    private final ExecutorService executor;
+    private final HashMap<String, Future<TileMap>> loads = new HashMap<String, Future<TileMap>>();
+
+    /**
+     * Creates a map loader with its own background thread.
+     *
+     * @param assets The asset manager to load tile images with
+     */
+    public MapLoader(AssetManager assets) {
+        this.assets = assets;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MapLoader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts loading a map in the background, unless it is already
+     * being loaded.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the map file in the map folder
+     */
+    public synchronized void prefetch(final String folder, final String mapfile) {
+        String key = folder + "/" + mapfile;
+        if (loads.containsKey(key)) return;
+
+        loads.put(key, executor.submit(new Callable<TileMap>() {
+            public TileMap call() {
+                TileMap map = new TileMap(assets);
+                return map.loadMap(folder, mapfile) ? map : null;
+            }
+        }));
+    }
+
+    /**
+     * Gets a map if it has finished loading, starting to load it if it
+     * hasn't been prefetched. A map is only handed out once; asking
+     * for it again loads it again.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the map file in the map folder
+     * @return The loaded map, or null if it is still loading
+     * @throws IllegalStateException if the map failed to load
+     */
+    public synchronized TileMap poll(String folder, String mapfile) {
+        prefetch(folder, mapfile);
+        Future<TileMap> load = loads.get(folder + "/" + mapfile);
+        if (!load.isDone()) return null;
+        return take(folder, mapfile);
+    }
+
+    /**
+     * Gets a map, waiting for it to finish loading. A map is only handed
+     * out once; asking for it again loads it again.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the map file in the map folder
+     * @return The loaded map
+     * @throws IllegalStateException if the map failed to load
+     */
+    public TileMap take(String folder, String mapfile) {
+        Future<TileMap> load;
+        synchronized (this) {
+            prefetch(folder, mapfile);
+            load = loads.remove(folder + "/" + mapfile);
+        }
+
+        TileMap map;
+        try {
+            map = load.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to load map '" + folder + "/" + mapfile + "'", e);
+        }
+        if (map == null)
+            throw new IllegalStateException("Failed to load map '" + folder + "/" + mapfile + "'");
+        return map;
+    }
+}
@@ -0,0 +1,207 @@
+package game2D;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MapStream holds the tile grid of a streamed TileMap. The grid stays on
+ * disk, stored as square chunks of tiles, and only a fixed number of chunks
+ * are kept in memory at once. Chunks are read in when the view gets near
+ * them (see prefetch()) or when a tile in them is asked for, and the chunks
+ * furthest from the view are dropped to make room.
+ * <p>
+ * Changes made with set() only last while the chunk is in memory; the
+ * file itself is never written to.
+ * <p>
+ * Even get() can read a chunk in and drop another, so a MapStream must only
+ * be used from one thread at a time.
+ */
+class MapStream {
+
+    private final FileChannel channel;    // The open map file
+    private final long gridStart;        // The file position of the first chunk
+    private final int chunkTiles;        // The width and height of a chunk in tiles
+    private final int chunksAcross;        // The map size in chunks
+    private final int chunksDown;
+
+    private final char[][] pages;        // The tiles of each chunk in memory, in row order
+    private final int[] pageChunk;        // The chunk held by each page, -1 if none
+    private int lastPage = 0;            // The page used last, checked first
+    private final ByteBuffer readBuf;    // Reused for reading chunks
+
+    // The chunks covered by the last prefetch. Chunks furthest outside
+    // this area are the first to be dropped.
+    private int viewCx0 = 0;
+    private int viewCy0 = 0;
+    private int viewCx1 = -1;
+    private int viewCy1 = -1;
+
+    /**
+     * Creates a stream over the chunked grid stored in 'channel'.
+     *
+     * @param channel    The open map file, which is closed by close()
+     * @param gridStart  The file position of the first chunk
+     * @param width      The map width in tiles
+     * @param height     The map height in tiles
+     * @param chunkTiles The width and height of a chunk in tiles
+     * @param capacity   The most chunks to keep in memory
+     */
+    MapStream(FileChannel channel, long gridStart, int width, int height, int chunkTiles, int capacity) {
+        this.channel = channel;
+        this.gridStart = gridStart;
+        this.chunkTiles = chunkTiles;
+        this.chunksAcross = (width + chunkTiles - 1) / chunkTiles;
+        this.chunksDown = (height + chunkTiles - 1) / chunkTiles;
+
+        capacity = Math.max(1, (int) Math.min(capacity, (long) chunksAcross * chunksDown));
+        pages = new char[capacity][chunkTiles * chunkTiles];
+        pageChunk = new int[capacity];
+        Arrays.fill(pageChunk, -1);
+        readBuf = ByteBuffer.allocate(chunkTiles * chunkTiles * 2);
+    }
+
+    /**
+     * @return The width and height of a chunk in tiles
+     */
+    int getChunkTiles() {
+        return chunkTiles;
+    }
+
+    /**
+     * @return The most chunks kept in memory
+     */
+    int getCapacity() {
+        return pages.length;
+    }
+
+    /**
+     * Gets the tile at 'x,y', which must be inside the map, reading its
+     * chunk in if needed.
+     */
+    char get(int x, int y) {
+        int cx = x / chunkTiles;
+        int cy = y / chunkTiles;
+        char[] page = page(cy * chunksAcross + cx);
+        return page[(y - cy * chunkTiles) * chunkTiles + (x - cx * chunkTiles)];
+    }
+
+    /**
+     * Changes the tile at 'x,y', which must be inside the map, until its
+     * chunk is dropped from memory.
+     */
+    void set(int x, int y, char ch) {
+        int cx = x / chunkTiles;
+        int cy = y / chunkTiles;
+        char[] page = page(cy * chunksAcross + cx);
+        page[(y - cy * chunkTiles) * chunkTiles + (x - cx * chunkTiles)] = ch;
+    }
+
+    /**
+     * Reads in the chunks covering tiles 'c0,r0' to 'c1,r1' plus one chunk
+     * all round, so they are ready before they come into view. Chunks are
+     * read nearest the centre first, and no more than fit in memory.
+     */
+    void prefetch(int c0, int r0, int c1, int r1) {
+        int cx0 = Math.max(0, Math.floorDiv(c0, chunkTiles) - 1);
+        int cy0 = Math.max(0, Math.floorDiv(r0, chunkTiles) - 1);
+        int cx1 = Math.min(chunksAcross - 1, Math.floorDiv(c1, chunkTiles) + 1);
+        int cy1 = Math.min(chunksDown - 1, Math.floorDiv(r1, chunkTiles) + 1);
+        viewCx0 = cx0;
+        viewCy0 = cy0;
+        viewCx1 = cx1;
+        viewCy1 = cy1;
+
+        int viewCx = (cx0 + cx1) / 2;
+        int viewCy = (cy0 + cy1) / 2;
+        int wanted = 0;
+        int max = Math.max(cx1 - cx0, cy1 - cy0);
+        for (int ring = 0; ring <= max && wanted < pages.length; ring++) {
+            for (int cy = viewCy - ring; cy <= viewCy + ring; cy++) {
+                for (int cx = viewCx - ring; cx <= viewCx + ring; cx++) {
+                    if (Math.max(Math.abs(cx - viewCx), Math.abs(cy - viewCy)) != ring) continue;
+                    if (cx < cx0 || cx > cx1 || cy < cy0 || cy > cy1) continue;
+                    if (wanted++ >= pages.length) return;
+                    page(cy * chunksAcross + cx);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of chunks currently in memory
+     */
+    int getResidentCount() {
+        int n = 0;
+        for (int chunk : pageChunk) if (chunk >= 0) n++;
+        return n;
+    }
+
+    /**
+     * Closes the map file.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Gets the page holding chunk 'index',
+     * reading it into the page of the chunk furthest outside the last
+     * prefetched area if it isn't in memory.
+     */
+    private char[] page(int index) {
+        if (pageChunk[lastPage] == index) return pages[lastPage];
+
+        int furthest = 0;
+        int furthestDist = -1;
+        for (int p = 0; p < pages.length; p++) {
+            int chunk = pageChunk[p];
+            if (chunk == index) {
+                lastPage = p;
+                return pages[p];
+            }
+            int dist = (chunk < 0) ? Integer.MAX_VALUE : distanceFromView(chunk % chunksAcross, chunk / chunksAcross);
+            if (dist > furthestDist) {
+                furthest = p;
+                furthestDist = dist;
+            }
+        }
+
+        read(index, pages[furthest]);
+        pageChunk[furthest] = index;
+        lastPage = furthest;
+        return pages[furthest];
+    }
+
+    /**
+     * @return How many chunks chunk 'cx,cy' is outside the last prefetched area, 0 if inside it
+     */
+    private int distanceFromView(int cx, int cy) {
+        int dx = Math.max(0, Math.max(viewCx0 - cx, cx - viewCx1));
+        int dy = Math.max(0, Math.max(viewCy0 - cy, cy - viewCy1));
+        return Math.max(dx, dy);
+    }
+
+    /**
+     * Reads chunk 'index' from the file into 'page'. If it can't be read,
+     * the chunk is treated as blank.
+     */
+    private void read(int index, char[] page) {
+        try {
+            long pos = gridStart + (long) index * readBuf.capacity();
+            readBuf.clear();
+            while (readBuf.hasRemaining()) {
+                if (channel.read(readBuf, pos + readBuf.position()) < 0) throw new IOException("Unexpected end of map");
+            }
+            readBuf.flip();
+            readBuf.asCharBuffer().get(page);
+        } catch (IOException e) {
+            System.err.println("Failed to read map chunk " + index + ":" + e);
+            Arrays.fill(page, '.');
+        }
+    }
+}
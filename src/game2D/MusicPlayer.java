@@ -0,0 +1,303 @@
+package game2D;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+/**
+ * MusicPlayer streams background music from disk. Rather than decoding a
+ * whole track into memory, it reads a few kilobytes at a time into a small
+ * ring buffer and plays from that, so the memory used is the same however
+ * long the track is and playback starts as soon as the first chunk is read.
+ * <p>
+ * Tracks can loop, and changing track can crossfade from the old one to
+ * the new one. All reading and playing happens on the player's own thread,
+ * so play() and crossfadeTo() return straight away.
+ */
+public class MusicPlayer implements Runnable {
+
+    private static final int BLOCK_FRAMES = 1024;    // Frames mixed at a time, about 21ms
+    private static final int LINE_BLOCKS = 8;        // Blocks the audio line buffers, about 170ms
+    private static final int RING_SAMPLES = 32768;    // Samples buffered per track, about 340ms
+    private static final int READ_BYTES = 8192;    // Bytes read from the file at a time
+
+    /**
+     * A track being streamed from disk.
+     */
+    private static class Track {
+
+        final String fileName;    // The file being played
+        final boolean loop;        // True to start again at the end
+        AudioInputStream in;    // The decoded stream, null once finished
+        final short[] ring = new short[RING_SAMPLES];
+        int readPos = 0;        // The next sample to play
+        int count = 0;            // The number of samples in the ring
+        final byte[] bytes = new byte[READ_BYTES];
+        int leftover = 0;        // An odd byte left at the end of the last read
+
+        Track(String fileName, boolean loop) {
+            this.fileName = fileName;
+            this.loop = loop;
+        }
+
+        /**
+         * @return true if the track has played to the end and will not loop
+         */
+        boolean isFinished() {
+            return in == null && count == 0;
+        }
+
+        /**
+         * Reads from the file until the ring buffer is nearly full.
+         * If the file can't be read the track stops.
+         */
+        void fill() {
+            try {
+                read();
+            } catch (Exception e) {
+                System.err.println("Failed to read music '" + fileName + "':" + e);
+                close();
+            }
+        }
+
+        private void read() throws Exception {
+            while (in != null && RING_SAMPLES - count >= READ_BYTES / 2) {
+                int n = in.read(bytes, leftover, READ_BYTES - leftover);
+                if (n < 0) {
+                    in.close();
+                    in = loop ? open(fileName) : null;
+                    leftover = 0;
+                    continue;
+                }
+                n += leftover;
+                int writePos = (readPos + count) % RING_SAMPLES;
+                for (int i = 0; i + 1 < n; i += 2) {
+                    ring[writePos] = (short) ((bytes[i] & 0xff) | (bytes[i + 1] << 8));
+                    writePos = (writePos + 1) % RING_SAMPLES;
+                    count++;
+                }
+                leftover = n & 1;
+                if (leftover == 1) bytes[0] = bytes[n - 1];
+            }
+        }
+
+        /**
+         * Adds the next 'len' samples to 'mix', with the volume changing
+         * steadily from 'gain0' to 'gain1' across them.
+         */
+        void mixInto(int[] mix, int len, float gain0, float gain1) {
+            int n = Math.min(len, count);
+            float step = (gain1 - gain0) / len;
+            for (int i = 0; i < n; i++) {
+                mix[i] += (int) (ring[readPos] * (gain0 + step * i));
+                readPos = (readPos + 1) % RING_SAMPLES;
+            }
+            count -= n;
+        }
+
+        void close() {
+            try {
+                if (in != null) in.close();
+            } catch (Exception e) {
+            }
+            in = null;
+            count = 0;
+        }
+    }
+
+    private final int[] mix = new int[BLOCK_FRAMES * SoundEngine.CHANNELS];
+    private final byte[] out = new byte[BLOCK_FRAMES * SoundEngine.CHANNELS * 2];
+
+    private SourceDataLine line;
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile float volume = 1.0f;
+
+    // The next change of track, handed from the caller to the player thread
+    private String nextFile;
+    private boolean nextLoop;
+    private long nextFade;
+    private boolean changePending = false;
+
+    // Only used by the player thread
+    private Track current;        // The track fading in or playing
+    private Track fading;        // The track fading out, if any
+    private long fadeFrames;    // The length of the current crossfade in frames
+    private long fadePos;        // How far through the crossfade we are in frames
+
+    /**
+     * Opens the audio line and starts the player thread.
+     *
+     * @return true if the player is running, false if no audio line was available
+     */
+    public synchronized boolean start() {
+        if (running) return true;
+        try {
+            line = AudioSystem.getSourceDataLine(SoundEngine.FORMAT);
+            line.open(SoundEngine.FORMAT, out.length * LINE_BLOCKS);
+            line.start();
+        } catch (Exception e) {
+            System.err.println("No audio available, music is disabled:" + e);
+            line = null;
+            return false;
+        }
+
+        running = true;
+        thread = new Thread(this, "MusicPlayer");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops the music and the player thread and closes the audio line.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = thread;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.close();
+        line = null;
+    }
+
+    /**
+     * Switches straight to playing a track.
+     *
+     * @param fileName The path to the sound file
+     * @param loop     True to start the track again when it ends
+     */
+    public void play(String fileName, boolean loop) {
+        crossfadeTo(fileName, 0, loop);
+    }
+
+    /**
+     * Fades out the current track while fading in a new one. Nothing
+     * changes if the new track is the one already playing.
+     *
+     * @param fileName   The path to the sound file, or null to fade to silence
+     * @param fadeMillis The time the crossfade takes in milliseconds
+     * @param loop       True to start the track again when it ends
+     */
+    public synchronized void crossfadeTo(String fileName, long fadeMillis, boolean loop) {
+        nextFile = fileName;
+        nextLoop = loop;
+        nextFade = fadeMillis;
+        changePending = true;
+    }
+
+    /**
+     * @param volume The music volume, from 0 (silent) to 1 (full volume)
+     */
+    public void setVolume(float volume) {
+        this.volume = Math.max(0, Math.min(1, volume));
+    }
+
+    /**
+     * @return true if the player thread is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The player thread: picks up any change of track, tops up each track's
+     * ring buffer from its file, then mixes a block and writes it to the line,
+     * which waits until the line has room.
+     */
+    public void run() {
+        while (running) {
+            changeTrack();
+            if (current != null) current.fill();
+            if (fading != null) fading.fill();
+            mixBlock();
+            line.write(out, 0, out.length);
+        }
+        if (current != null) current.close();
+        if (fading != null) fading.close();
+        line.drain();
+    }
+
+    /**
+     * Starts any track change asked for since the last block.
+     */
+    private void changeTrack() {
+        String fileName;
+        boolean loop;
+        long fade;
+        synchronized (this) {
+            if (!changePending) return;
+            changePending = false;
+            fileName = nextFile;
+            loop = nextLoop;
+            fade = nextFade;
+        }
+        if (current != null && fileName != null && fileName.equals(current.fileName) && !current.isFinished())
+            return;
+
+        if (fading != null) fading.close();
+        fading = current;
+        fadeFrames = Math.max(1, (long) (fade * SoundEngine.SAMPLE_RATE / 1000));
+        fadePos = 0;
+        if (fade <= 0 && fading != null) {
+            fading.close();
+            fading = null;
+        }
+
+        current = null;
+        if (fileName != null) {
+            current = new Track(fileName, loop);
+            try {
+                current.in = open(fileName);
+            } catch (Exception e) {
+                System.err.println("Failed to open music '" + fileName + "':" + e);
+            }
+        }
+    }
+
+    /**
+     * Mixes the next block of the current and fading tracks into 'out'.
+     */
+    private void mixBlock() {
+        Arrays.fill(mix, 0);
+        float v = volume;
+        if (fading == null) {
+            if (current != null) current.mixInto(mix, mix.length, v, v);
+        } else {
+            long end = Math.min(fadePos + BLOCK_FRAMES, fadeFrames);
+            float in0 = (float) fadePos / fadeFrames, in1 = (float) end / fadeFrames;
+            if (current != null) current.mixInto(mix, mix.length, v * in0, v * in1);
+            fading.mixInto(mix, mix.length, v * (1 - in0), v * (1 - in1));
+            fadePos = end;
+            if (fadePos >= fadeFrames) {
+                fading.close();
+                fading = null;
+            }
+        }
+
+        for (int i = 0; i < mix.length; i++) {
+            int m = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            out[2 * i] = (byte) m;
+            out[2 * i + 1] = (byte) (m >> 8);
+        }
+    }
+
+    /**
+     * Opens a sound file as a stream in the engine's format.
+     */
+    private static AudioInputStream open(String fileName) throws Exception {
+        AudioInputStream in = AudioSystem.getAudioInputStream(
+                new BufferedInputStream(new FileInputStream(fileName)));
+        return AudioSystem.getAudioInputStream(SoundEngine.FORMAT, in);
+    }
+}
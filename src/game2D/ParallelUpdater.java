@@ -0,0 +1,191 @@
+package game2D;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelUpdater runs the per-entity update of an EntityStore (patrolling
+ * and moving through the tile map) across several cores. The entities are
+ * split into chunks of consecutive indices which are updated as tasks on a
+ * ForkJoinPool. Each entity only reads the tile map and writes its own
+ * slots in the store, so chunks never touch the same data.
+ * <p>
+ * Below a threshold number of entities the update runs sequentially on the
+ * calling thread, where the cost of handing out tasks would outweigh any
+ * gain. It also runs sequentially when the tile map is streamed, because
+ * reading a streamed map reads chunks in from disk and is not safe from
+ * several threads at once. Either way the result is identical, and the
+ * collision events from the update are reported in entity index order, so
+ * runs are repeatable regardless of how the work was scheduled.
+ */
+public class ParallelUpdater {
+
+    private final ForkJoinPool pool;    // The pool to run chunks on
+    private int threshold = 4096;        // Fewer entities than this are updated sequentially
+    private int chunkSize = 1024;        // The most entities updated by one task
+
+    // Collision events from the last update, one per entity that made contact
+    private int[] eventHandles = new int[64];
+    private int[] eventContacts = new int[64];
+    private int eventCount = 0;
+
+    /**
+     * Creates an updater that runs on the common ForkJoinPool.
+     */
+    public ParallelUpdater() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an updater that runs on the given pool.
+     *
+     * @param pool The pool to run chunks of the update on
+     */
+    public ParallelUpdater(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the number of entities below which the update is run
+     * sequentially on the calling thread.
+     *
+     * @param threshold The smallest number of entities to update in parallel
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return The smallest number of entities that is updated in parallel
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the largest number of entities updated by a single task.
+     *
+     * @param chunkSize The number of entities per task
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Updates every entity in 'store': patrolling entities pick their
+     * direction, then all entities are moved through 'world' (or simply by
+     * their velocity if 'world' is null). Afterwards the collision events
+     * can be read with getEventCount(), getEventHandle() and getEventContacts().
+     *
+     * @param store   The entities to update
+     * @param world   The collision world to move them through, or null
+     * @param elapsed The time that has elapsed since the last update
+     */
+    public void update(EntityStore store, CollisionWorld world, long elapsed) {
+        int n = store.size();
+        if (n < threshold || isStreaming(world))
+            updateRange(store, world, 0, n, elapsed);
+        else
+            pool.invoke(new UpdateTask(store, world, 0, n, elapsed));
+
+        collectEvents(store, world);
+    }
+
+    /**
+     * @return The number of collision events from the last update
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @param i The event number, 0 to getEventCount()-1
+     * @return The handle of the entity involved in event 'i'
+     */
+    public int getEventHandle(int i) {
+        return eventHandles[i];
+    }
+
+    /**
+     * @param i The event number, 0 to getEventCount()-1
+     * @return The CollisionWorld contacts made in event 'i'
+     */
+    public int getEventContacts(int i) {
+        return eventContacts[i];
+    }
+
+    /**
+     * @return true if 'world' moves entities through a streamed tile map
+     */
+    private static boolean isStreaming(CollisionWorld world) {
+        return world != null && world.getTileMap() != null && world.getTileMap().isStreaming();
+    }
+
+    /**
+     * Updates the entities at indices 'from' (inclusive) to 'to' (exclusive).
+     */
+    private static void updateRange(EntityStore store, CollisionWorld world, int from, int to, long elapsed) {
+        store.patrolRange(from, to);
+        if (world != null)
+            world.moveRange(store, from, to, elapsed);
+        else
+            store.integrateRange(from, to, elapsed);
+    }
+
+    /**
+     * Gathers the contacts every entity made into the event list. This is
+     * done after all the chunks have finished, in index order, so that the
+     * events come out in the same order however the chunks were run.
+     */
+    private void collectEvents(EntityStore store, CollisionWorld world) {
+        eventCount = 0;
+        if (world == null) return;
+
+        int n = store.size();
+        for (int i = 0; i < n; i++) {
+            if (store.contacts[i] == 0) continue;
+            if (eventCount == eventHandles.length) {
+                eventHandles = Arrays.copyOf(eventHandles, eventCount * 2);
+                eventContacts = Arrays.copyOf(eventContacts, eventCount * 2);
+            }
+            eventHandles[eventCount] = store.handle(i);
+            eventContacts[eventCount] = store.contacts[i];
+            eventCount++;
+        }
+    }
+
+    /**
+     * A task that updates a range of entities, splitting itself in half
+     * until the range is no bigger than the chunk size.
+     */
+    private class UpdateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final EntityStore store;
+        private final CollisionWorld world;
+        private final int from;
+        private final int to;
+        private final long elapsed;
+
+        UpdateTask(EntityStore store, CollisionWorld world, int from, int to, long elapsed) {
+            this.store = store;
+            this.world = world;
+            this.from = from;
+            this.to = to;
+            this.elapsed = elapsed;
+        }
+
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                updateRange(store, world, from, to, elapsed);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new UpdateTask(store, world, from, mid, elapsed),
+                    new UpdateTask(store, world, mid, to, elapsed));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package game2D;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * SoundEngine plays short sound effects. Each effect is read and decoded
+ * once by load(), then play() just queues it and returns straight away.
+ * A single mixer thread adds together up to a fixed number of effects
+ * (voices) at a time and writes the result to one audio line, so playing
+ * a sound never creates a thread, opens a file or opens a line.
+ * <p>
+ * Every effect is converted to the engine's format (16 bit stereo at
+ * SAMPLE_RATE) when it is loaded. If no audio line is available, e.g. on
+ * a machine with no sound card, start() reports it and play() does nothing.
+ */
+public class SoundEngine implements Runnable {
+
+    public static final float SAMPLE_RATE = 48000;    // Samples per second per channel
+    public static final int DEFAULT_VOICES = 8;        // Default number of sounds that can play at once
+
+    static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 256;    // Frames mixed at a time, about 5ms
+    private static final int LINE_BLOCKS = 4;        // Blocks the audio line buffers, about 21ms
+
+    static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+
+    // The decoded samples of each loaded effect, indexed by sound id
+    private final ArrayList<short[]> samples = new ArrayList<short[]>();
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+    // Sound ids waiting to be started by the mixer thread
+    private final ArrayBlockingQueue<Integer> requests = new ArrayBlockingQueue<Integer>(64);
+
+    // The voices, only used by the mixer thread. A voice is free if its sound is null.
+    private final short[][] voiceSound;
+    private final int[] voicePos;        // The next sample each voice will play
+    private final long[] voiceStart;    // The block each voice started on, to find the oldest
+
+    private final int[] mix = new int[BLOCK_FRAMES * CHANNELS];
+    private final byte[] out = new byte[BLOCK_FRAMES * CHANNELS * 2];
+
+    private SourceDataLine line;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    /**
+     * Creates a sound engine that can play DEFAULT_VOICES sounds at once.
+     */
+    public SoundEngine() {
+        this(DEFAULT_VOICES);
+    }
+
+    /**
+     * Creates a sound engine that can play 'voices' sounds at once.
+     * If more are played, the one that has been playing longest is cut off.
+     *
+     * @param voices The number of sounds that can play at once
+     */
+    public SoundEngine(int voices) {
+        voiceSound = new short[voices][];
+        voicePos = new int[voices];
+        voiceStart = new long[voices];
+    }
+
+    /**
+     * Reads and decodes a sound file so that it can be played with play().
+     * Loading the same file again returns the same id without reading it.
+     *
+     * @param fileName The path to the sound file
+     * @return The id to play the sound with, or -1 if it could not be loaded
+     */
+    public synchronized int load(String fileName) {
+        Integer id = ids.get(fileName);
+        if (id != null) return id;
+
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new File(fileName));
+             AudioInputStream pcm = AudioSystem.getAudioInputStream(FORMAT, in)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = pcm.read(buf)) > 0) bytes.write(buf, 0, n);
+
+            byte[] b = bytes.toByteArray();
+            short[] s = new short[b.length / 2];
+            for (int i = 0; i < s.length; i++)
+                s[i] = (short) ((b[2 * i] & 0xff) | (b[2 * i + 1] << 8));
+
+            samples.add(s);
+            ids.put(fileName, samples.size() - 1);
+            return samples.size() - 1;
+        } catch (Exception e) {
+            System.err.println("Failed to load sound '" + fileName + "':" + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Opens the audio line and starts the mixer thread.
+     *
+     * @return true if the engine is running, false if no audio line was available
+     */
+    public synchronized boolean start() {
+        if (running) return true;
+        try {
+            line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT, out.length * LINE_BLOCKS);
+            line.start();
+        } catch (Exception e) {
+            System.err.println("No audio available, sounds are disabled:" + e);
+            line = null;
+            return false;
+        }
+
+        running = true;
+        thread = new Thread(this, "SoundEngine");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops the mixer thread and closes the audio line. Any sounds
+     * playing are cut off.
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = thread;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.close();
+        line = null;
+        requests.clear();
+    }
+
+    /**
+     * @return true if the mixer thread is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts playing a loaded sound. This never blocks. Nothing happens if
+     * the engine is not running, the id is not valid, or a lot of sounds
+     * have been played since the mixer thread last ran.
+     *
+     * @param id The id returned by load()
+     */
+    public void play(int id) {
+        if (!running || id < 0) return;
+        requests.offer(id);
+    }
+
+    /**
+     * The mixer thread: starts requested sounds, mixes a block of the
+     * playing voices and writes it to the line, which waits until the
+     * line has room so the loop runs at the speed the sound is played.
+     */
+    public void run() {
+        long block = 0;
+        while (running) {
+            Integer id;
+            while ((id = requests.poll()) != null) startVoice(id, block);
+            mixBlock();
+            line.write(out, 0, out.length);
+            block++;
+        }
+        line.drain();
+    }
+
+    /**
+     * Starts sound 'id' on a free voice, or on the oldest voice if all are busy.
+     */
+    private void startVoice(int id, long block) {
+        short[] s;
+        synchronized (this) {
+            if (id >= samples.size()) return;
+            s = samples.get(id);
+        }
+
+        int v = 0;
+        for (int i = 0; i < voiceSound.length; i++) {
+            if (voiceSound[i] == null) {
+                v = i;
+                break;
+            }
+            if (voiceStart[i] < voiceStart[v]) v = i;
+        }
+        voiceSound[v] = s;
+        voicePos[v] = 0;
+        voiceStart[v] = block;
+    }
+
+    /**
+     * Adds together the next block of every playing voice into 'out',
+     * freeing voices that reach the end of their sound.
+     */
+    private void mixBlock() {
+        Arrays.fill(mix, 0);
+        for (int v = 0; v < voiceSound.length; v++) {
+            short[] s = voiceSound[v];
+            if (s == null) continue;
+
+            int pos = voicePos[v];
+            int n = Math.min(mix.length, s.length - pos);
+            for (int i = 0; i < n; i++) mix[i] += s[pos + i];
+
+            if (pos + n >= s.length) voiceSound[v] = null;
+            else voicePos[v] = pos + n;
+        }
+
+        for (int i = 0; i < mix.length; i++) {
+            int m = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+            out[2 * i] = (byte) m;
+            out[2 * i + 1] = (byte) (m >> 8);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package game2D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SpatialHash is a broadphase for sprite collisions. The world is divided
+ * into a uniform grid of square cells and each sprite is recorded in every
+ * cell its bounding box overlaps. Only sprites sharing a cell are candidates
+ * for colliding with each other, so finding collisions costs roughly the
+ * number of sprites rather than the number of sprites squared.
+ * <p>
+ * The hash is meant to be rebuilt every update: call clear(), insert() each
+ * sprite, then use query() or findPairs(). Once its arrays have grown to fit
+ * the number of sprites, rebuilding it does not allocate any memory.
+ */
+public class SpatialHash {
+
+    /**
+     * Receives the candidate pairs found by findPairs().
+     */
+    public interface PairHandler {
+        /**
+         * Called once for each pair of sprites that share a cell.
+         *
+         * @param a The first sprite
+         * @param b The second sprite
+         */
+        void pair(Sprite a, Sprite b);
+    }
+
+    private final float cellSize;    // The width and height of a cell in pixels
+
+    // One entry per sprite per cell it overlaps. Entries in the same
+    // hash bucket are chained together through 'next'.
+    private Sprite[] sprites;
+    private int[] cellX;            // The cell this entry is in
+    private int[] cellY;
+    private int[] minCellX;            // The top left cell the sprite overlaps
+    private int[] minCellY;
+    private int[] next;                // The next entry in the same bucket, or -1
+    private int count = 0;            // The number of entries in use
+
+    private int[] buckets;            // The first entry in each bucket, or -1
+
+    /**
+     * Creates a spatial hash with the given cell size. A good cell size is
+     * a little bigger than a typical sprite.
+     *
+     * @param cellSize The width and height of each cell in pixels
+     */
+    public SpatialHash(float cellSize) {
+        this.cellSize = cellSize;
+        sprites = new Sprite[64];
+        cellX = new int[64];
+        cellY = new int[64];
+        minCellX = new int[64];
+        minCellY = new int[64];
+        next = new int[64];
+        buckets = new int[128];
+        Arrays.fill(buckets, -1);
+    }
+
+    /**
+     * Removes all sprites from the hash. The bucket table is resized here
+     * if the last set of sprites overfilled it.
+     */
+    public void clear() {
+        if (count > buckets.length / 2)
+            buckets = new int[Integer.highestOneBit(count) * 4];
+        Arrays.fill(buckets, -1);
+        Arrays.fill(sprites, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * @return The number of entries in the hash, one per sprite per cell
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Adds the sprite 's' to every cell its bounding box overlaps.
+     *
+     * @param s The sprite to add
+     */
+    public void insert(Sprite s) {
+        int cx0 = cell(s.getX());
+        int cy0 = cell(s.getY());
+        int cx1 = cell(s.getX() + s.getWidth());
+        int cy1 = cell(s.getY() + s.getHeight());
+
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (count == sprites.length) grow();
+                int bucket = bucket(cx, cy);
+                sprites[count] = s;
+                cellX[count] = cx;
+                cellY[count] = cy;
+                minCellX[count] = cx0;
+                minCellY[count] = cy0;
+                next[count] = buckets[bucket];
+                buckets[bucket] = count;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Finds the sprites that share a cell with the given rectangle. Each
+     * sprite is added to 'out' once, even if it shares several cells.
+     *
+     * @param x   The left of the rectangle in pixels
+     * @param y   The top of the rectangle in pixels
+     * @param w   The width of the rectangle in pixels
+     * @param h   The height of the rectangle in pixels
+     * @param out The list to add the sprites found to
+     */
+    public void query(float x, float y, float w, float h, List<Sprite> out) {
+        int cx0 = cell(x);
+        int cy0 = cell(y);
+        int cx1 = cell(x + w);
+        int cy1 = cell(y + h);
+
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int e = buckets[bucket(cx, cy)]; e >= 0; e = next[e]) {
+                    if (cellX[e] != cx || cellY[e] != cy) continue;
+                    // Only report the sprite from the first cell it shares with
+                    // the rectangle, so it is reported once
+                    if (cx == Math.max(cx0, minCellX[e]) && cy == Math.max(cy0, minCellY[e]))
+                        out.add(sprites[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the sprites that share a cell with the sprite 's', not including
+     * 's' itself. See query(float, float, float, float, List).
+     *
+     * @param s   The sprite to find neighbours of
+     * @param out The list to add the sprites found to
+     */
+    public void query(Sprite s, List<Sprite> out) {
+        int start = out.size();
+        query(s.getX(), s.getY(), s.getWidth(), s.getHeight(), out);
+        for (int i = out.size() - 1; i >= start; i--) {
+            if (out.get(i) == s) out.remove(i);
+        }
+    }
+
+    /**
+     * Passes every pair of sprites that share at least one cell to
+     * 'handler'. Each pair is reported once.
+     *
+     * @param handler The handler to pass the pairs to
+     */
+    public void findPairs(PairHandler handler) {
+        for (int b = 0; b < buckets.length; b++) {
+            for (int e1 = buckets[b]; e1 >= 0; e1 = next[e1]) {
+                for (int e2 = next[e1]; e2 >= 0; e2 = next[e2]) {
+                    if (cellX[e1] != cellX[e2] || cellY[e1] != cellY[e2]) continue;
+                    if (sprites[e1] == sprites[e2]) continue;
+                    // Only report the pair from the first cell both sprites share
+                    if (cellX[e1] == Math.max(minCellX[e1], minCellX[e2])
+                            && cellY[e1] == Math.max(minCellY[e1], minCellY[e2]))
+                        handler.pair(sprites[e1], sprites[e2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The cell coordinate containing pixel coordinate 'p'
+     */
+    private int cell(float p) {
+        return (int) Math.floor(p / cellSize);
+    }
+
+    /**
+     * @return The bucket that cell 'cx,cy' is stored in
+     */
+    private int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & (buckets.length - 1);
+    }
+
+    /**
+     * Doubles the space available for entries.
+     */
+    private void grow() {
+        int size = sprites.length * 2;
+        sprites = Arrays.copyOf(sprites, size);
+        cellX = Arrays.copyOf(cellX, size);
+        cellY = Arrays.copyOf(cellY, size);
+        minCellX = Arrays.copyOf(minCellX, size);
+        minCellY = Arrays.copyOf(minCellY, size);
+        next = Arrays.copyOf(next, size);
+    }
+}
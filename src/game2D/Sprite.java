@@ -18,6 +18,11 @@ public class Sprite {
     private float x;
     private float y;
 
+    // Position at the start of the last update, used to
+    // interpolate the drawn position between updates
+    private float prevX;
+    private float prevY;
+
     // Velocity (pixels per millisecond)
     private float dx;
     private float dy;
@@ -40,6 +45,9 @@ public class Sprite {
     private int xoff = 0;
     private int yoff = 0;
 
+    // Reused by drawTransformed() rather than making a new one every frame
+    private final AffineTransform transform = new AffineTransform();
+
     /**
      * true denotes right, false denotes left
      */
@@ -131,8 +139,19 @@ public class Sprite {
      */
     public void update(long elapsedTime) {
         if (!render) return;
-        x += dx * elapsedTime;
-        y += dy * elapsedTime;
+        moveTo(x + dx * elapsedTime, y + dy * elapsedTime);
+        updateAnimation(elapsedTime);
+    }
+
+    /**
+     * Updates this Sprite's Animation based on the elapsedTime
+     * without moving it. Use this instead of update() when the
+     * sprite is moved by something else, e.g. a CollisionWorld.
+     *
+     * @param elapsedTime The time that has elapsed since the last call to update
+     */
+    public void updateAnimation(long elapsedTime) {
+        if (!render) return;
         anim.update(elapsedTime);
         width = anim.getImage().getWidth(null);
         height = anim.getImage().getHeight(null);
@@ -158,17 +177,55 @@ public class Sprite {
     }
 
     /**
-     * Sets this Sprite's current x position.
+     * Gets this Sprite's x position interpolated between its position
+     * before and after the last update.
+     *
+     * @param alpha How far between the two positions to go, 0 to 1
+     */
+    public float getInterpolatedX(float alpha) {
+        return prevX + (x - prevX) * alpha;
+    }
+
+    /**
+     * Gets this Sprite's y position interpolated between its position
+     * before and after the last update.
+     *
+     * @param alpha How far between the two positions to go, 0 to 1
+     */
+    public float getInterpolatedY(float alpha) {
+        return prevY + (y - prevY) * alpha;
+    }
+
+    /**
+     * Sets this Sprite's current x position. This also resets
+     * the interpolation start point so the sprite doesn't
+     * appear to slide to its new position.
      */
     public void setX(float x) {
         this.x = x;
+        prevX = x;
     }
 
     /**
-     * Sets this Sprite's current y position.
+     * Sets this Sprite's current y position. This also resets
+     * the interpolation start point so the sprite doesn't
+     * appear to slide to its new position.
      */
     public void setY(float y) {
         this.y = y;
+        prevY = y;
+    }
+
+    /**
+     * Moves this Sprite to 'x,y' as the result of an update.
+     * Unlike setX() and setY(), the previous position is kept
+     * so that drawing can interpolate between the two.
+     */
+    public void moveTo(float x, float y) {
+        prevX = this.x;
+        prevY = this.y;
+        this.x = x;
+        this.y = y;
     }
 
     public void shiftX(float shift) {
@@ -274,8 +331,8 @@ public class Sprite {
      * Stops the sprites movement at the current position
      */
     public void stop() {
-        dx = 0;
-        dy = 0;
+        setVelocityX(0);
+        setVelocityY(0);
     }
 
     /**
@@ -293,7 +350,33 @@ public class Sprite {
     public void draw(Graphics2D g) {
         if (!render) return;
 
-        g.drawImage(getImage(), (int) x + xoff, (int) y + yoff, null);
+        drawAt(g, (int) getX() + xoff, (int) getY() + yoff);
+    }
+
+    /**
+     * Draws the sprite with the graphics object 'g' at a position
+     * interpolated between where it was before and after the last
+     * update. Scaling and rotation transforms are NOT applied.
+     *
+     * @param g     The graphics object to draw to
+     * @param alpha How far between the two positions to draw, 0 to 1
+     */
+    public void draw(Graphics2D g, float alpha) {
+        if (!render) return;
+
+        drawAt(g, (int) getInterpolatedX(alpha) + xoff, (int) getInterpolatedY(alpha) + yoff);
+    }
+
+    /**
+     * Draws the current frame at 'dx,dy', from the animation's
+     * atlas if it has one.
+     */
+    private void drawAt(Graphics2D g, int dx, int dy) {
+        TextureAtlas.Region region = anim.getRegion();
+        if (region != null)
+            region.draw(g, dx, dy);
+        else
+            g.drawImage(getImage(), dx, dy, null);
     }
 
     /**
@@ -306,8 +389,8 @@ public class Sprite {
     public void drawTransformed(Graphics2D g) {
         if (!render) return;
 
-        AffineTransform transform = new AffineTransform();
-        transform.translate(Math.round(x) + xoff, Math.round(y) + yoff);
+        transform.setToIdentity();
+        transform.translate(Math.round(getX()) + xoff, Math.round(getY()) + yoff);
         transform.scale(scale, scale);
         transform.rotate(rotation, getImage().getWidth(null) / 2, getImage().getHeight(null) / 2);
         // Apply transform to the image and draw it
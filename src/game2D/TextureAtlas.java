@@ -0,0 +1,230 @@
+package game2D;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A TextureAtlas packs many small images (sprite frames, tiles) into a few
+ * large page images. Drawing then copies a region of a page rather than a
+ * separate image, so a frame draws from a handful of source surfaces
+ * instead of one per image, which Java2D can cache and switch between far
+ * more cheaply.
+ * <p>
+ * Add the images to pack with add(), call pack() once, then look up the
+ * Region for each image with getRegion(). Animation and TileMap can be
+ * given an atlas with useAtlas() and will draw from it automatically.
+ */
+public class TextureAtlas {
+
+    /**
+     * The area of an atlas page holding one of the packed images.
+     */
+    public static class Region {
+
+        private final Image page;    // The page image the region is on
+        private final int x;        // The position of the region on the page
+        private final int y;
+        private final int width;    // The size of the region
+        private final int height;
+
+        Region(Image page, int x, int y, int width, int height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Draws the region at 'dx,dy', exactly as drawing the
+         * original image there would.
+         *
+         * @param g  The graphics object to draw to
+         * @param dx The x coordinate to draw at
+         * @param dy The y coordinate to draw at
+         */
+        public void draw(Graphics2D g, int dx, int dy) {
+            g.drawImage(page, dx, dy, dx + width, dy + height, x, y, x + width, y + height, null);
+        }
+
+        /**
+         * @return The page image the region is on
+         */
+        public Image getPage() {
+            return page;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    private final int pageSize;                            // The width and height of each page
+    private final List<Image> pending = new ArrayList<Image>();    // Images added but not yet packed
+    private final IdentityHashMap<Image, Region> regions = new IdentityHashMap<Image, Region>();
+    private final List<Image> pages = new ArrayList<Image>();
+
+    /**
+     * Creates an empty atlas with the default page size.
+     */
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Creates an empty atlas with pages of the given size.
+     *
+     * @param pageSize The width and height of each page in pixels
+     */
+    public TextureAtlas(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Adds an image to be packed by the next call to pack(). Adding
+     * the same image more than once has no further effect.
+     *
+     * @param img The image to add
+     */
+    public void add(Image img) {
+        if (img == null || regions.containsKey(img) || pending.contains(img)) return;
+        pending.add(img);
+    }
+
+    /**
+     * Adds every frame of an animation to be packed.
+     *
+     * @param anim The animation to add the frames of
+     */
+    public void add(Animation anim) {
+        for (int i = 0; anim.getFrameImage(i) != null; i++)
+            add(anim.getFrameImage(i));
+    }
+
+    /**
+     * Adds every tile image of a tile map to be packed.
+     *
+     * @param map The tile map to add the images of
+     */
+    public void add(TileMap map) {
+        for (Image img : map.getTileImages())
+            add(img);
+    }
+
+    /**
+     * Packs all the images added since the last call into new pages.
+     * Images are sorted by height and laid out in rows (shelves) across
+     * each page, starting a new page when one fills up. Images too big
+     * for a page are left out and are drawn on their own as normal.
+     * <p>
+     * Each page only holds images of one transparency, so opaque images
+     * such as most tiles go on opaque pages and are copied without
+     * blending, just as they would be from their own images.
+     *
+     * @param gc The graphics configuration to make pages compatible with,
+     *           or null for plain RGB and ARGB images
+     */
+    public void pack(GraphicsConfiguration gc) {
+        Collections.sort(pending, new Comparator<Image>() {
+            public int compare(Image a, Image b) {
+                return b.getHeight(null) - a.getHeight(null);
+            }
+        });
+
+        int[] kinds = {Transparency.OPAQUE, Transparency.BITMASK, Transparency.TRANSLUCENT};
+        for (int transparency : kinds) {
+            Image page = null;
+            Graphics2D pg = null;
+            int x = 0, y = 0, shelfHeight = 0;
+
+            for (Image img : pending) {
+                if (getTransparency(img) != transparency) continue;
+                int w = img.getWidth(null);
+                int h = img.getHeight(null);
+                if (w <= 0 || h <= 0 || w > pageSize || h > pageSize) continue;
+
+                // Start a new shelf if this row is full, and a new page if this page is
+                if (x + w > pageSize) {
+                    x = 0;
+                    y += shelfHeight;
+                    shelfHeight = 0;
+                }
+                if (page == null || y + h > pageSize) {
+                    if (pg != null) pg.dispose();
+                    page = createPage(gc, transparency);
+                    pg = (Graphics2D) page.getGraphics();
+                    pages.add(page);
+                    x = 0;
+                    y = 0;
+                    shelfHeight = 0;
+                }
+
+                pg.drawImage(img, x, y, null);
+                regions.put(img, new Region(page, x, y, w, h));
+                x += w;
+                shelfHeight = Math.max(shelfHeight, h);
+            }
+
+            if (pg != null) pg.dispose();
+        }
+        pending.clear();
+    }
+
+    /**
+     * Gets the region holding a packed image.
+     *
+     * @param img The original image
+     * @return The region the image was packed into, or null if it has not been packed
+     */
+    public Region getRegion(Image img) {
+        return regions.get(img);
+    }
+
+    /**
+     * @return The number of pages the images have been packed into
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return The transparency of 'img', or TRANSLUCENT if it can't be told
+     */
+    private static int getTransparency(Image img) {
+        if (img instanceof Transparency) return ((Transparency) img).getTransparency();
+        return Transparency.TRANSLUCENT;
+    }
+
+    /**
+     * Creates a new, empty page for images of the given transparency.
+     */
+    private Image createPage(GraphicsConfiguration gc, int transparency) {
+        if (gc != null)
+            return gc.createCompatibleImage(pageSize, pageSize, transparency);
+        if (transparency == Transparency.OPAQUE)
+            return new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_RGB);
+        return new BufferedImage(pageSize, pageSize, BufferedImage.TYPE_INT_ARGB);
+    }
+}
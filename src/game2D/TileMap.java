@@ -1,12 +1,19 @@
 package game2D;
 
-import javax.swing.ImageIcon;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -23,6 +30,10 @@ import java.io.*;
  * #b=orangeblock.png
  * #c=greencircle.png
  * #g=glasses.png
+ * // Tile characters can be given properties by listing them after an @
+ * // character. Valid properties are solid, hazard, goal and oneway.
+ * &#64;b=solid
+ * &#64;c=solid,oneway
  * // The actual tile map is preceded by the #map line
  * #map
  * bbbbbbbbbb
@@ -31,21 +42,98 @@ import java.io.*;
  * bccccccccb
  * bbbbbbbbbb
  * <p>
+ * Maps can also be compiled into a binary format (see saveBinaryMap() and
+ * MapConverter), which is loaded by giving loadMap() a file ending in .tmb.
+ * The binary file holds the same information as the text file: a header,
+ * the character to image file dictionary, the character properties and
+ * the tile grid as 16 bit characters. The file is memory mapped and the
+ * grid copied straight into the map without parsing each tile, which
+ * makes loading large maps far quicker.
+ * <p>
+ * For maps too big to hold in memory, saveChunkedMap() writes the grid as
+ * square chunks instead. Loading a chunked map only reads the header; the
+ * chunks are streamed in as the view approaches them and dropped when it
+ * moves away, keeping at most STREAM_CAPACITY chunks in memory. The rest
+ * of the TileMap methods work across the whole map as normal.
+ * <p>
  * }
  *
  * @author David Cairns
  */
 public class TileMap {
 
-    private Tile[][] tmap;        // The tile map grid, initially null
+    private char[] tmap;            // The tile map grid, one character per tile in row order, initially null
+    private MapStream stream;        // The tile grid when it is streamed from disk instead of held in tmap
     private int mapWidth = 0;        // The maps width in tiles
     private int mapHeight = 0;    // The maps height in tiles
     private int tileWidth = 32;    // The width of a tile in pixels
     private int tileHeight = 32;    // The height of a tile in pixels
 
-    // imagemap contains a set of character to image mappings for
-    // quick loop up of the image associated with a given character.
+    // imagemap contains the set of character to image mappings read
+    // from the map file. Once loaded, these are copied into tileImages,
+    // which is indexed directly by tile character for quick look up.
     private Map<String, Image> imagemap = new HashMap<String, Image>();
+    private Map<String, String> filemap = new HashMap<String, String>();    // The file name of each image
+    private Image[] tileImages = new Image[0];
+    private AssetManager assets;    // Loads and caches the tile images
+
+    // If an atlas is in use, tileRegions holds where each tile image is in
+    // it, indexed by tile character in the same way as tileImages
+    private TextureAtlas atlas;
+    private TextureAtlas.Region[] tileRegions = new TextureAtlas.Region[0];
+
+    // Tile property flags, combined as a bitmask for each tile character
+    public static final int SOLID = 1;        // Sprites cannot pass through the tile
+    public static final int HAZARD = 2;        // Touching the tile is lethal
+    public static final int GOAL = 4;        // Touching the tile completes the level
+    public static final int ONE_WAY = 8;    // Solid only when landed on from above
+
+    // tileFlags holds the property flags for each tile character,
+    // indexed directly by character in the same way as tileImages.
+    private int[] tileFlags = new int[0];
+
+    private final Rectangle clip = new Rectangle();    // Reused by draw() to read the clip rectangle
+
+    // When chunk caching is on, the map is drawn from images that each hold
+    // CHUNK_TILES x CHUNK_TILES tiles. Chunks are rendered the first time they
+    // come into view and thrown away again once they are more than
+    // CHUNK_EVICT_DISTANCE chunks away from the visible area.
+    public static final int CHUNK_TILES = 8;
+    private static final int CHUNK_EVICT_DISTANCE = 2;
+
+    private boolean chunkCaching = false;
+    private int chunksAcross = 0;        // The map width in chunks
+    private int chunksDown = 0;            // The map height in chunks
+    private Image[] chunkImages;        // Rendered chunks, null if not built or blank
+    private int[] chunkOffsets;            // Pixel offset of each chunk image within its chunk (x, y pairs)
+    private boolean[] chunkBuilt;        // true if a chunk has been rendered
+    private int[] residentChunks;        // Indices of the chunks currently built
+    private int residentCount = 0;
+
+    public static final String BINARY_EXTENSION = ".tmb";
+    private static final int BINARY_MAGIC = 0x544D4150;    // "TMAP"
+    private static final int BINARY_VERSION = 1;            // The whole grid in row order
+    private static final int CHUNKED_VERSION = 2;        // The grid in chunks, streamed as needed
+    public static final int DEFAULT_STREAM_CHUNK_TILES = 32;    // The default chunk size when saving a chunked map
+    public static final int STREAM_CAPACITY = 64;        // The most chunks of a streamed map kept in memory
+
+    /**
+     * Creates an empty tile map that loads its images through
+     * its own AssetManager.
+     */
+    public TileMap() {
+        this(new AssetManager());
+    }
+
+    /**
+     * Creates an empty tile map that loads its images through 'assets',
+     * so that they are shared with anything else using it.
+     *
+     * @param assets The asset manager to load tile images with
+     */
+    public TileMap(AssetManager assets) {
+        this.assets = assets;
+    }
 
     /**
      * @return The map height in tiles
@@ -98,6 +186,9 @@ public class TileMap {
      * @return true if the map loaded successfully, false otherwise
      */
     public boolean loadMap(String folder, String mapfile) {
+        close();
+        if (mapfile.endsWith(BINARY_EXTENSION)) return loadBinaryMap(folder, mapfile);
+
         // Create a full path to the tile map by sticking the folder and mapfile together
         String path = folder + "/" + mapfile;
         int row = 0;
@@ -108,8 +199,10 @@ public class TileMap {
             String trimmed = "";
             String[] vals;
 
-            // First we need to clear out the old image map
+            // First we need to clear out the old image map and properties
             imagemap.clear();
+            filemap.clear();
+            Map<Character, Integer> flagmap = new HashMap<Character, Integer>();
 
             // Read the first line of the tile map to find out
             // the relevant dimensions of the map plus the tiles
@@ -131,8 +224,8 @@ public class TileMap {
             // Now look for the character assignments
             while ((line = in.readLine()) != null) {
                 trimmed = line.trim();
-                // Skip the current line if it's a comment
-                if (trimmed.startsWith("//")) continue;
+                // Skip the current line if it's blank or a comment
+                if (trimmed.length() == 0 || trimmed.startsWith("//")) continue;
                 // Break out of the loop if we find the map
                 if (trimmed.startsWith("#map")) break;
 
@@ -144,18 +237,23 @@ public class TileMap {
                     // and it's file name
                     String fileName = trimmed.substring(3, trimmed.length());
 
-                    Image img = new ImageIcon(folder + "/" + fileName).getImage();
+                    Image img = assets.getImage(folder + "/" + fileName);
                     // Now add this character->image mapping to the map
+                    filemap.put(ch, fileName);
                     if (img != null)
                         imagemap.put(ch, img);
                     else
                         System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+                } else if (trimmed.charAt(0) == '@') // Look for a character's properties
+                {
+                    flagmap.put(trimmed.charAt(1), parseFlags(trimmed.substring(3)));
                 }
             }
 
             // Check the map dimensione are at least > 0
             if ((mapWidth > 0) && (mapHeight > 0)) {
-                tmap = new Tile[mapWidth][mapHeight];
+                tmap = new char[mapWidth * mapHeight];
+                Arrays.fill(tmap, '.');
             } else {
                 System.err.println("Incorrect image map dimensions.");
                 trimmed = "";
@@ -173,8 +271,7 @@ public class TileMap {
                         continue;
                     }
 
-                    for (int col = 0; col < mapWidth && col < line.length(); col++)
-                        tmap[col][row] = new Tile(line.charAt(col), col * tileWidth, row * tileHeight);
+                    line.getChars(0, mapWidth, tmap, row * mapWidth);
                     row++;
 
                     if (row >= mapHeight) break;
@@ -183,6 +280,10 @@ public class TileMap {
 
             in.close();
 
+            buildTileImages();
+            buildTileFlags(flagmap);
+            resetChunks();
+
         } catch (Exception e) {
             System.err.println("Failed to read in tile map '" + path + "':" + e);
             return false;
@@ -196,20 +297,318 @@ public class TileMap {
         return true;
     }
 
+    /**
+     * Loads a map compiled by saveBinaryMap() or saveChunkedMap(). The file
+     * is memory mapped and read directly. A whole grid is copied in a single
+     * block; a chunked grid is left on disk and streamed.
+     *
+     * @param folder  The folder the tile map and images are located in
+     * @param mapfile The name of the binary map file in the map folder
+     * @return true if the map loaded successfully, false otherwise
+     */
+    private boolean loadBinaryMap(String folder, String mapfile) {
+        String path = folder + "/" + mapfile;
+        FileChannel channel = null;
+
+        try {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            // A chunked map can be bigger than one mapping allows, but everything
+            // read through the mapping comes before the chunks
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+
+            int magic = buf.getInt();
+            int version = buf.getInt();
+            if (magic != BINARY_MAGIC || (version != BINARY_VERSION && version != CHUNKED_VERSION)) {
+                System.err.println("'" + path + "' is not a binary tile map of version "
+                        + BINARY_VERSION + " or " + CHUNKED_VERSION);
+                channel.close();
+                return false;
+            }
+
+            int width = buf.getInt();
+            int height = buf.getInt();
+            int tw = buf.getInt();
+            int th = buf.getInt();
+            if (width <= 0 || height <= 0) {
+                System.err.println("Incorrect image map dimensions.");
+                channel.close();
+                return false;
+            }
+
+            // The character to image file dictionary
+            imagemap.clear();
+            filemap.clear();
+            int images = buf.getInt();
+            for (int i = 0; i < images; i++) {
+                String ch = "" + buf.getChar();
+                byte[] name = new byte[buf.getShort() & 0xffff];
+                buf.get(name);
+                String fileName = new String(name, StandardCharsets.UTF_8);
+
+                filemap.put(ch, fileName);
+                Image img = assets.getImage(folder + "/" + fileName);
+                if (img != null)
+                    imagemap.put(ch, img);
+                else
+                    System.err.println("Failed to load image '" + folder + "/" + fileName + "'");
+            }
+
+            // The character properties
+            Map<Character, Integer> flagmap = new HashMap<Character, Integer>();
+            int props = buf.getInt();
+            for (int i = 0; i < props; i++)
+                flagmap.put(buf.getChar(), buf.getInt());
+
+            // The tile grid, either all of it or the chunk size for streaming it
+            char[] grid = null;
+            MapStream newStream = null;
+            if (version == BINARY_VERSION) {
+                grid = new char[width * height];
+                buf.asCharBuffer().get(grid);
+                channel.close();
+            } else {
+                int chunkTiles = buf.getInt();
+                newStream = new MapStream(channel, buf.position(), width, height, chunkTiles, STREAM_CAPACITY);
+            }
+
+            mapWidth = width;
+            mapHeight = height;
+            tileWidth = tw;
+            tileHeight = th;
+            tmap = grid;
+            stream = newStream;
+
+            buildTileImages();
+            buildTileFlags(flagmap);
+            resetChunks();
+        } catch (Exception e) {
+            System.err.println("Failed to read in tile map '" + path + "':" + e);
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ce) {
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the current map in the binary format read by loadMap() for files
+     * ending in .tmb. The image file names are written as they appeared in
+     * the original map, so the binary map should be kept in the same folder
+     * as the images.
+     *
+     * @param path The path to the file to write
+     * @return true if the map was saved successfully, false otherwise
+     */
+    public boolean saveBinaryMap(String path) {
+        if (tmap == null && stream == null) return false;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            writeHeader(out, BINARY_VERSION);
+            for (int y = 0; y < mapHeight; y++)
+                for (int x = 0; x < mapWidth; x++)
+                    out.writeChar(tileAt(x, y));
+        } catch (Exception e) {
+            System.err.println("Failed to write tile map '" + path + "':" + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the current map as a binary map whose grid is stored in square
+     * chunks, so that loadMap() streams it rather than reading it all in.
+     * Chunks that run off the edge of the map are padded with blank tiles.
+     *
+     * @param path       The path to the file to write
+     * @param chunkTiles The width and height of each chunk in tiles
+     * @return true if the map was saved successfully, false otherwise
+     */
+    public boolean saveChunkedMap(String path, int chunkTiles) {
+        if ((tmap == null && stream == null) || chunkTiles <= 0) return false;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            writeHeader(out, CHUNKED_VERSION);
+            out.writeInt(chunkTiles);
+
+            int chunksAcross = (mapWidth + chunkTiles - 1) / chunkTiles;
+            int chunksDown = (mapHeight + chunkTiles - 1) / chunkTiles;
+            for (int cy = 0; cy < chunksDown; cy++) {
+                for (int cx = 0; cx < chunksAcross; cx++) {
+                    for (int y = cy * chunkTiles; y < (cy + 1) * chunkTiles; y++) {
+                        for (int x = cx * chunkTiles; x < (cx + 1) * chunkTiles; x++)
+                            out.writeChar(valid(x, y) ? tileAt(x, y) : '.');
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to write tile map '" + path + "':" + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes everything in a binary map that comes before the grid: the
+     * header, the character to image file dictionary and the properties.
+     */
+    private void writeHeader(DataOutputStream out, int version) throws IOException {
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(version);
+        out.writeInt(mapWidth);
+        out.writeInt(mapHeight);
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+
+        out.writeInt(filemap.size());
+        for (Map.Entry<String, String> e : filemap.entrySet()) {
+            byte[] name = e.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeChar(e.getKey().charAt(0));
+            out.writeShort(name.length);
+            out.write(name);
+        }
+
+        int props = 0;
+        for (int flags : tileFlags) if (flags != 0) props++;
+        out.writeInt(props);
+        for (int ch = 0; ch < tileFlags.length; ch++) {
+            if (tileFlags[ch] == 0) continue;
+            out.writeChar(ch);
+            out.writeInt(tileFlags[ch]);
+        }
+    }
+
+    /**
+     * @return true if the map's grid is being streamed from disk
+     */
+    public boolean isStreaming() {
+        return stream != null;
+    }
+
+    /**
+     * Closes the file a streamed map is read from and empties the map.
+     * This does nothing to a map that is not streamed.
+     */
+    public void close() {
+        if (stream == null) return;
+        stream.close();
+        stream = null;
+        tmap = null;
+        mapWidth = 0;
+        mapHeight = 0;
+        resetChunks();
+    }
+
+    /**
+     * Copies the character to image mappings into the tileImages table,
+     * sized to fit the highest character that has an image.
+     */
+    private void buildTileImages() {
+        int size = 0;
+        for (String ch : imagemap.keySet())
+            size = Math.max(size, ch.charAt(0) + 1);
+
+        tileImages = new Image[size];
+        for (Map.Entry<String, Image> e : imagemap.entrySet())
+            tileImages[e.getKey().charAt(0)] = e.getValue();
+
+        buildTileRegions();
+    }
+
+    /**
+     * Looks up each tile image in the atlas, if there is one.
+     */
+    private void buildTileRegions() {
+        tileRegions = new TextureAtlas.Region[tileImages.length];
+        if (atlas == null) return;
+        for (int i = 0; i < tileImages.length; i++)
+            if (tileImages[i] != null) tileRegions[i] = atlas.getRegion(tileImages[i]);
+    }
+
+    /**
+     * @return The image for each tile character, indexed by character. Characters
+     * without an image have a null entry.
+     */
+    Image[] getTileImages() {
+        return tileImages;
+    }
+
+    /**
+     * Draws the tiles from the pages of 'atlas' rather than from their own
+     * images. Tiles whose image is not in the atlas are drawn as normal.
+     * The atlas is kept when a new map is loaded, so it should contain the
+     * tile images for any map that will be loaded.
+     *
+     * @param atlas The packed atlas to draw from, or null to stop using one
+     */
+    public void useAtlas(TextureAtlas atlas) {
+        this.atlas = atlas;
+        buildTileRegions();
+        resetChunks();
+    }
+
+    /**
+     * Converts a comma separated list of tile properties, e.g. "solid,oneway",
+     * into a bitmask of property flags.
+     *
+     * @param list The list of properties
+     * @return The combined flags
+     */
+    private int parseFlags(String list) {
+        int flags = 0;
+        for (String name : list.split(",")) {
+            name = name.trim();
+            if (name.equals("solid")) flags |= SOLID;
+            else if (name.equals("hazard")) flags |= HAZARD;
+            else if (name.equals("goal")) flags |= GOAL;
+            else if (name.equals("oneway")) flags |= ONE_WAY;
+            else System.err.println("Unknown tile property '" + name + "'");
+        }
+        return flags;
+    }
+
+    /**
+     * Copies the character to property mappings into the tileFlags table,
+     * sized to fit the highest character that has properties.
+     *
+     * @param flagmap The properties read from the map file
+     */
+    private void buildTileFlags(Map<Character, Integer> flagmap) {
+        int size = 0;
+        for (char ch : flagmap.keySet())
+            size = Math.max(size, ch + 1);
+
+        tileFlags = new int[size];
+        for (Map.Entry<Character, Integer> e : flagmap.entrySet())
+            tileFlags[e.getKey()] = e.getValue();
+    }
+
     /**
      * Generate the tile map as a String so we can inspect its current state
      */
     public String toString() {
+        if (stream != null)
+            return "Streamed map " + mapWidth + "x" + mapHeight + " in " + stream.getChunkTiles() + " tile chunks\n";
         StringBuffer s = new StringBuffer();
         for (int r = 0; r < mapHeight; r++) {
-            for (int c = 0; c < mapWidth; c++)
-                s.append(tmap[c][r].getCharacter());
-
+            s.append(tmap, r * mapWidth, mapWidth);
             s.append('\n');
         }
         return s.toString();
     }
 
+    /**
+     * @return The character of the tile at 'x,y', which must be a valid position
+     */
+    private char tileAt(int x, int y) {
+        if (stream != null) return stream.get(x, y);
+        return tmap[y * mapWidth + x];
+    }
+
     /**
      * Get the Image object associated with the tile at position 'x','y'
      *
@@ -219,11 +618,9 @@ public class TileMap {
      */
     public Image getTileImage(int x, int y) {
         if (!valid(x, y)) return null;
-        Tile t = tmap[x][y];
-        if (t == null) return null;
-        char ch = t.getCharacter();
-        if (ch == '.') return null; // Blank space
-        return imagemap.get(ch + "");
+        char ch = tileAt(x, y);
+        if (ch == '.' || ch >= tileImages.length) return null; // Blank space or no image
+        return tileImages[ch];
     }
 
     /**
@@ -235,7 +632,7 @@ public class TileMap {
      */
     public int getTileXC(int x, int y) {
         if (!valid(x, y)) return 0;
-        return tmap[x][y].getXC();
+        return x * tileWidth;
     }
 
     /**
@@ -247,7 +644,7 @@ public class TileMap {
      */
     public int getTileYC(int x, int y) {
         if (!valid(x, y)) return 0;
-        return tmap[x][y].getYC();
+        return y * tileHeight;
     }
 
     /**
@@ -261,6 +658,8 @@ public class TileMap {
 
     /**
      * Sets the tile character at position 'x,y' to the value of 'ch'.
+     * On a streamed map the change only lasts until the tile's chunk
+     * is dropped from memory.
      *
      * @param ch The character to set the tile to.
      * @param x  The x tile coordinate (in tiles, not pixels)
@@ -269,7 +668,11 @@ public class TileMap {
      */
     public boolean setTileChar(char ch, int x, int y) {
         if (!valid(x, y)) return false;
-        tmap[x][y].setCharacter(ch);
+        if (stream != null)
+            stream.set(x, y, ch);
+        else
+            tmap[y * mapWidth + x] = ch;
+        invalidateChunk(x / CHUNK_TILES, y / CHUNK_TILES);
         return true;
     }
 
@@ -282,11 +685,69 @@ public class TileMap {
      */
     public char getTileChar(int x, int y) {
         if (!valid(x, y)) return '?';
-        return tmap[x][y].getCharacter();
+        return tileAt(x, y);
     }
 
     /**
-     * Gets the tile object at position 'x,y'
+     * Gets the property flags (SOLID, HAZARD, GOAL, ONE_WAY) of the tile at
+     * position 'x,y'. Positions outside the map have no properties.
+     *
+     * @param x The x tile coordinate (in tiles, not pixels)
+     * @param y The y tile coordinate (in tiles, not pixels)
+     * @return The property flags of the tile
+     */
+    public int getTileFlags(int x, int y) {
+        if (!valid(x, y)) return 0;
+        char ch = tileAt(x, y);
+        return ch < tileFlags.length ? tileFlags[ch] : 0;
+    }
+
+    /**
+     * Gets the combined property flags of all the tiles from 'x0,y0' to
+     * 'x1,y1' inclusive. Positions outside the map are ignored.
+     *
+     * @param x0 The left tile coordinate
+     * @param y0 The top tile coordinate
+     * @param x1 The right tile coordinate
+     * @param y1 The bottom tile coordinate
+     * @return The property flags of every tile in the area OR'd together
+     */
+    public int getTileFlags(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, mapWidth - 1);
+        y1 = Math.min(y1, mapHeight - 1);
+
+        int flags = 0;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                char ch = tileAt(x, y);
+                if (ch < tileFlags.length) flags |= tileFlags[ch];
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * Gets the combined property flags of all the tiles that overlap the
+     * given rectangle in pixels.
+     *
+     * @param x The left of the rectangle in pixels
+     * @param y The top of the rectangle in pixels
+     * @param w The width of the rectangle in pixels
+     * @param h The height of the rectangle in pixels
+     * @return The property flags of every tile under the rectangle OR'd together
+     */
+    public int getFlagsAt(float x, float y, float w, float h) {
+        if (w <= 0 || h <= 0) return 0;
+        return getTileFlags((int) Math.floor(x / tileWidth), (int) Math.floor(y / tileHeight),
+                (int) Math.ceil((x + w) / tileWidth) - 1, (int) Math.ceil((y + h) / tileHeight) - 1);
+    }
+
+    /**
+     * Gets a tile object describing the tile at position 'x,y'. The map only
+     * stores tile characters, so this is a new object each time and changing
+     * its character does not change the map; use setTileChar() for that.
      *
      * @param x The x tile coordinate (in tiles, not pixels)
      * @param y The y tile coordinate (in tiles, not pixels)
@@ -294,11 +755,185 @@ public class TileMap {
      */
     public Tile getTile(int x, int y) {
         if (!valid(x, y)) return null;
-        return tmap[x][y];
+        return new Tile(tileAt(x, y), x * tileWidth, y * tileHeight);
+    }
+
+    /**
+     * Turns drawing from cached chunk images on or off. With caching on,
+     * draw() blits one image per visible chunk of CHUNK_TILES x CHUNK_TILES
+     * tiles instead of one image per visible tile. Turning caching off
+     * releases all the cached chunks. Streamed maps are always drawn
+     * tile by tile.
+     *
+     * @param cache true to draw the map from cached chunks
+     */
+    public void setChunkCaching(boolean cache) {
+        chunkCaching = cache;
+        resetChunks();
+    }
+
+    /**
+     * @return true if the map is drawn from cached chunk images
+     */
+    public boolean isChunkCaching() {
+        return chunkCaching;
+    }
+
+    /**
+     * Throws away any cached chunks and sizes the chunk tables to
+     * the current map dimensions.
+     */
+    private void resetChunks() {
+        if (chunkImages != null) {
+            for (int i = 0; i < residentCount; i++) {
+                Image img = chunkImages[residentChunks[i]];
+                if (img != null) img.flush();
+            }
+        }
+        // A streamed map is always drawn tile by tile, as these tables cover the whole map
+        chunksAcross = (stream != null) ? 0 : (mapWidth + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunksDown = (stream != null) ? 0 : (mapHeight + CHUNK_TILES - 1) / CHUNK_TILES;
+        chunkImages = new Image[chunksAcross * chunksDown];
+        chunkOffsets = new int[chunksAcross * chunksDown * 2];
+        chunkBuilt = new boolean[chunksAcross * chunksDown];
+        residentChunks = new int[chunksAcross * chunksDown];
+        residentCount = 0;
+    }
+
+    /**
+     * Marks the chunk at chunk position 'cx,cy' as needing rendering again,
+     * e.g. because one of its tiles has changed.
+     *
+     * @param cx The x chunk coordinate
+     * @param cy The y chunk coordinate
+     */
+    private void invalidateChunk(int cx, int cy) {
+        if (chunkBuilt == null || cx >= chunksAcross || cy >= chunksDown) return;
+        int index = cy * chunksAcross + cx;
+        if (!chunkBuilt[index]) return;
+        for (int i = 0; i < residentCount; i++) {
+            if (residentChunks[i] == index) {
+                evictChunk(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Releases the resident chunk at position 'i' in the resident list.
+     *
+     * @param i The position of the chunk in residentChunks
+     */
+    private void evictChunk(int i) {
+        int index = residentChunks[i];
+        if (chunkImages[index] != null) chunkImages[index].flush();
+        chunkImages[index] = null;
+        chunkBuilt[index] = false;
+        residentChunks[i] = residentChunks[--residentCount];
+    }
+
+    /**
+     * Gets the image for the chunk at chunk position 'cx,cy', rendering
+     * it first if needed. The image only covers the bounding box of the
+     * non-blank tiles in the chunk so that blank areas cost nothing to draw;
+     * its position within the chunk is stored in chunkOffsets.
+     *
+     * @param cx The x chunk coordinate
+     * @param cy The y chunk coordinate
+     * @param gc The graphics configuration to make the image compatible with
+     * @return The chunk image, or null if the chunk is entirely blank
+     */
+    private Image getChunkImage(int cx, int cy, GraphicsConfiguration gc) {
+        int index = cy * chunksAcross + cx;
+        if (chunkBuilt[index]) return chunkImages[index];
+
+        // Find the bounding box of the tiles in this chunk that have images
+        int c0 = Integer.MAX_VALUE, r0 = Integer.MAX_VALUE, c1 = -1, r1 = -1;
+        int cEnd = Math.min((cx + 1) * CHUNK_TILES, mapWidth);
+        int rEnd = Math.min((cy + 1) * CHUNK_TILES, mapHeight);
+        for (int r = cy * CHUNK_TILES; r < rEnd; r++) {
+            for (int c = cx * CHUNK_TILES; c < cEnd; c++) {
+                if (getTileImage(c, r) == null) continue;
+                c0 = Math.min(c0, c);
+                r0 = Math.min(r0, r);
+                c1 = Math.max(c1, c);
+                r1 = Math.max(r1, r);
+            }
+        }
+
+        Image img = null;
+        if (c1 >= 0) {
+            img = gc.createCompatibleImage((c1 - c0 + 1) * tileWidth, (r1 - r0 + 1) * tileHeight,
+                    Transparency.BITMASK);
+            Graphics2D cg = (Graphics2D) img.getGraphics();
+            drawTiles(cg, c0, r0, c1, r1, -c0 * tileWidth, -r0 * tileHeight);
+            cg.dispose();
+            chunkOffsets[index * 2] = (c0 - cx * CHUNK_TILES) * tileWidth;
+            chunkOffsets[index * 2 + 1] = (r0 - cy * CHUNK_TILES) * tileHeight;
+        }
+
+        chunkImages[index] = img;
+        chunkBuilt[index] = true;
+        residentChunks[residentCount++] = index;
+        return img;
+    }
+
+    /**
+     * Draws the tiles from 'c0,r0' to 'c1,r1' inclusive, shifted by 'xoff,yoff'.
+     */
+    private void drawTiles(Graphics2D g, int c0, int r0, int c1, int r1, int xoff, int yoff) {
+        Image img;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                img = getTileImage(c, r);
+                if (img == null) continue;
+                TextureAtlas.Region region = tileRegions[tileAt(c, r)];
+                if (region != null)
+                    region.draw(g, xoff + c * tileWidth, yoff + r * tileHeight);
+                else
+                    g.drawImage(img, xoff + c * tileWidth, yoff + r * tileHeight, null);
+            }
+        }
+    }
+
+    /**
+     * Draws the tile map from cached chunk images, building any chunks that
+     * have come into view and evicting any that are now far out of view.
+     */
+    private void drawChunks(Graphics2D g, int xoff, int yoff, Rectangle rect) {
+        int chunkWidth = CHUNK_TILES * tileWidth;
+        int chunkHeight = CHUNK_TILES * tileHeight;
+
+        // Work out the range of chunks that overlap the clip rectangle
+        int cx0 = Math.max(0, Math.floorDiv(rect.x - xoff, chunkWidth));
+        int cy0 = Math.max(0, Math.floorDiv(rect.y - yoff, chunkHeight));
+        int cx1 = Math.min(chunksAcross - 1, Math.floorDiv(rect.x + rect.width - 1 - xoff, chunkWidth));
+        int cy1 = Math.min(chunksDown - 1, Math.floorDiv(rect.y + rect.height - 1 - yoff, chunkHeight));
+
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                Image img = getChunkImage(cx, cy, gc);
+                if (img == null) continue;
+                int index = cy * chunksAcross + cx;
+                g.drawImage(img, xoff + cx * chunkWidth + chunkOffsets[index * 2],
+                        yoff + cy * chunkHeight + chunkOffsets[index * 2 + 1], null);
+            }
+        }
+
+        // Drop chunks that have scrolled well out of view
+        for (int i = residentCount - 1; i >= 0; i--) {
+            int cx = residentChunks[i] % chunksAcross;
+            int cy = residentChunks[i] / chunksAcross;
+            if (cx < cx0 - CHUNK_EVICT_DISTANCE || cx > cx1 + CHUNK_EVICT_DISTANCE
+                    || cy < cy0 - CHUNK_EVICT_DISTANCE || cy > cy1 + CHUNK_EVICT_DISTANCE)
+                evictChunk(i);
+        }
     }
 
     /**
      * Draws the tile map to the graphics device pointed to by 'g'.
+     * See setChunkCaching() for drawing from cached chunk images.
      *
      * @param g    The graphics device to draw to
      * @param xoff The xoffset to shift the tile map by
@@ -307,22 +942,26 @@ public class TileMap {
     public void draw(Graphics2D g, int xoff, int yoff) {
         if (g == null) return;
 
-        Image img = null;
-        Rectangle rect = (Rectangle) g.getClip();
-        int xc, yc;
-
-        for (int r = 0; r < mapHeight; r++) {
-            for (int c = 0; c < mapWidth; c++) {
-                img = getTileImage(c, r);
-                if (img == null) continue;
-                xc = xoff + c * tileWidth;
-                yc = yoff + r * tileHeight;
+        // Read the clip into our own rectangle rather than a new one every frame.
+        // With no clip, the whole map is drawn.
+        clip.setBounds(xoff, yoff, getPixelWidth(), getPixelHeight());
+        Rectangle rect = g.getClipBounds(clip);
 
-                // Only draw the tile if it is on screen, otherwise go back round the loop
-                if (xc + tileWidth < 0 || xc >= rect.x + rect.width) continue;
-                if (yc + tileHeight < 0 || yc >= rect.y + rect.height) continue;
-                g.drawImage(img, xc, yc, null);
-            }
+        if (chunkCaching && stream == null) {
+            drawChunks(g, xoff, yoff, rect);
+            return;
         }
+
+        // Only visit the tiles that overlap the clip rectangle, so the cost
+        // of drawing depends on the size of the screen, not of the map
+        int c0 = Math.max(0, Math.floorDiv(rect.x - xoff, tileWidth));
+        int r0 = Math.max(0, Math.floorDiv(rect.y - yoff, tileHeight));
+        int c1 = Math.min(mapWidth - 1, Math.floorDiv(rect.x + rect.width - 1 - xoff, tileWidth));
+        int r1 = Math.min(mapHeight - 1, Math.floorDiv(rect.y + rect.height - 1 - yoff, tileHeight));
+
+        // Read in the chunks of a streamed map around the view before they are needed
+        if (stream != null) stream.prefetch(c0, r0, c1, r1);
+
+        drawTiles(g, c0, r0, c1, r1, xoff, yoff);
     }
 }